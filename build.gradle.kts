@@ -4,6 +4,7 @@ plugins {
     java
     application
     id("net.ltgt.errorprone") version "0.8.1"
+    id("me.champeau.gradle.jmh") version "0.5.0"
 }
 
 java {
@@ -34,10 +35,37 @@ dependencies {
     testRuntime("org.junit.jupiter:junit-jupiter-engine:5.4.0")
 }
 
+jmh {
+    jmhVersion = "1.23"
+}
+
 val run by tasks.getting(JavaExec::class) {
     standardInput = System.`in`
 }
 
+val runServer by tasks.registering(JavaExec::class) {
+    group = "application"
+    description = "Serves the storage over the binary protocol."
+    classpath = sourceSets["main"].runtimeClasspath
+    main = "ru.mail.polis.Server"
+    maxHeapSize = "128m"
+}
+
+val runLoad by tasks.registering(JavaExec::class) {
+    group = "application"
+    description = "Generates pipelined load against a running server."
+    classpath = sourceSets["main"].runtimeClasspath
+    main = "ru.mail.polis.LoadGenerator"
+}
+
+val runReplay by tasks.registering(JavaExec::class) {
+    group = "application"
+    description = "Replays a recorded trace against the storage."
+    classpath = sourceSets["main"].runtimeClasspath
+    main = "ru.mail.polis.Replay"
+    maxHeapSize = "128m"
+}
+
 tasks {
     test {
         maxHeapSize = "128m"
@@ -63,4 +91,12 @@ tasks.withType<JavaCompile> {
 // Error prone options
 tasks.named<JavaCompile>("compileTestJava") {
     options.errorprone.isEnabled.set(false)
+}
+
+tasks.named<JavaCompile>("compileJmhJava") {
+    options.errorprone.isEnabled.set(false)
+}
+
+tasks.named<JavaCompile>("jmhCompileGeneratedClasses") {
+    options.errorprone.isEnabled.set(false)
 }
\ No newline at end of file
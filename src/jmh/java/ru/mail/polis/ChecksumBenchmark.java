@@ -0,0 +1,84 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.marashov.ChecksumMode;
+import ru.mail.polis.marashov.Config;
+import ru.mail.polis.marashov.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of checksum verification on the read path.
+ *
+ * @author Alexander Marashov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx128m")
+public class ChecksumBenchmark {
+    private static final int KEY_COUNT = 100_000;
+    private static final int VALUE_LENGTH = 256;
+    private static final long FLUSH_THRESHOLD = 1024 * 1024;
+
+    @Param({"ALWAYS", "SAMPLED", "OFF"})
+    private ChecksumMode mode;
+
+    private File data;
+    private DAO dao;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = java.nio.file.Files.createTempDirectory("checksum").toFile();
+        final Config config = Config.builder()
+                .flushThresholdBytes(FLUSH_THRESHOLD)
+                .scrubBytesPerSecond(0)
+                .build();
+        try (DAO writer = new LsmDAO(data, config)) {
+            final byte[] value = new byte[VALUE_LENGTH];
+            for (int i = 0; i < KEY_COUNT; i++) {
+                ThreadLocalRandom.current().nextBytes(value);
+                writer.upsert(key(i), ByteBuffer.wrap(value));
+            }
+        }
+        dao = new LsmDAO(
+                data,
+                Config.builder()
+                        .checksumMode(mode)
+                        .scrubBytesPerSecond(0)
+                        .build());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @Benchmark
+    public ByteBuffer get() throws IOException {
+        return dao.get(key(ThreadLocalRandom.current().nextInt(KEY_COUNT)));
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, i);
+    }
+}
@@ -0,0 +1,108 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.marashov.Config;
+import ru.mail.polis.marashov.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures concurrent point lookups of Zipf-distributed keys with and without the row cache.
+ *
+ * @author Alexander Marashov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx128m")
+@Threads(4)
+public class RowCacheBenchmark {
+    private static final int KEY_COUNT = 100_000;
+    private static final int VALUE_LENGTH = 256;
+    private static final long FLUSH_THRESHOLD = 1024 * 1024;
+
+    @Param({"0", "4194304", "16777216"})
+    private long cacheBytes;
+
+    @Param({"0.99"})
+    private double skew;
+
+    private File data;
+    private LsmDAO dao;
+    // Cumulative probabilities of the keys by popularity rank
+    private double[] distribution;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = java.nio.file.Files.createTempDirectory("cache").toFile();
+        final Config config = Config.builder()
+                .flushThresholdBytes(FLUSH_THRESHOLD)
+                .scrubBytesPerSecond(0)
+                .build();
+        try (DAO writer = new LsmDAO(data, config)) {
+            final byte[] value = new byte[VALUE_LENGTH];
+            for (int i = 0; i < KEY_COUNT; i++) {
+                ThreadLocalRandom.current().nextBytes(value);
+                writer.upsert(key(i), ByteBuffer.wrap(value));
+            }
+        }
+        dao = new LsmDAO(
+                data,
+                Config.builder()
+                        .rowCacheBytes(cacheBytes)
+                        .scrubBytesPerSecond(0)
+                        .build());
+
+        distribution = new double[KEY_COUNT];
+        double sum = 0;
+        for (int i = 0; i < KEY_COUNT; i++) {
+            sum += 1 / Math.pow(i + 1, skew);
+            distribution[i] = sum;
+        }
+        for (int i = 0; i < KEY_COUNT; i++) {
+            distribution[i] /= sum;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @Benchmark
+    public ByteBuffer get() throws IOException {
+        return dao.get(key(nextRank()));
+    }
+
+    private int nextRank() {
+        final int i = Arrays.binarySearch(distribution, ThreadLocalRandom.current().nextDouble());
+        // Insertion point of the first greater probability
+        return Math.min(i >= 0 ? i : -i - 1, KEY_COUNT - 1);
+    }
+
+    private static ByteBuffer key(final int i) {
+        // Spread popular keys over the tables instead of writing them first
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, Integer.reverse(i));
+    }
+}
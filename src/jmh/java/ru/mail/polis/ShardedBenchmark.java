@@ -0,0 +1,73 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.marashov.Config;
+import ru.mail.polis.marashov.ShardedDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how concurrent write throughput scales with the number of shards.
+ *
+ * @author Alexander Marashov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx128m")
+@Threads(4)
+public class ShardedBenchmark {
+    private static final int VALUE_LENGTH = 256;
+    private static final long FLUSH_THRESHOLD = 1024 * 1024;
+
+    @Param({"1", "2", "4"})
+    private int shards;
+
+    private File data;
+    private DAO dao;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = java.nio.file.Files.createTempDirectory("sharded").toFile();
+        dao = new ShardedDAO(
+                data,
+                shards,
+                Config.builder()
+                        .flushThresholdBytes(FLUSH_THRESHOLD / shards)
+                        .scrubBytesPerSecond(0)
+                        .build());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @Benchmark
+    public void upsert() throws IOException {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final byte[] value = new byte[VALUE_LENGTH];
+        random.nextBytes(value);
+        dao.upsert(ByteBuffer.allocate(Long.BYTES).putLong(0, random.nextLong()), ByteBuffer.wrap(value));
+    }
+}
@@ -95,4 +95,16 @@ public interface DAO extends Closeable {
      * Removes value by given key.
      */
     void remove(@NotNull ByteBuffer key) throws IOException;
+
+    /**
+     * Records an operand to be applied to the value by the storage merge operator on read,
+     * so that read-modify-write needs neither a preceding read nor external locking.
+     *
+     * @throws UnsupportedOperationException if the storage has no merge operator
+     */
+    default void merge(
+            @NotNull ByteBuffer key,
+            @NotNull ByteBuffer operand) throws IOException {
+        throw new UnsupportedOperationException("Merge is not supported");
+    }
 }
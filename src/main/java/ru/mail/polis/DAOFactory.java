@@ -17,6 +17,8 @@
 package ru.mail.polis;
 
 import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.marashov.Config;
+import ru.mail.polis.marashov.LsmDAO;
 
 import java.io.File;
 import java.io.IOException;
@@ -53,7 +55,6 @@ public final class DAOFactory {
             throw new IllegalArgumentException("Path is not a directory: " + data);
         }
 
-        // TODO: Implement me
-        throw new UnsupportedOperationException("Implement me!");
+        return new LsmDAO(data, Config.defaults());
     }
 }
@@ -0,0 +1,87 @@
+package ru.mail.polis;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Log-linear latency histogram with relative error under 1/16 and constant memory footprint.
+ *
+ * @author Alexander Marashov
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long max;
+
+    void record(final long nanos) {
+        counts[index(Math.max(0L, nanos))]++;
+        count++;
+        max = Math.max(max, nanos);
+    }
+
+    void add(final LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Approximates the given percentile from below.
+     */
+    long percentileNanos(final double percentile) {
+        final long rank = (long) Math.ceil(percentile / 100 * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(lowerBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Human readable percentiles in microseconds.
+     */
+    String summary() {
+        return String.format(
+                "p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus",
+                micros(percentileNanos(50)),
+                micros(percentileNanos(90)),
+                micros(percentileNanos(99)),
+                micros(percentileNanos(99.9)),
+                micros(max));
+    }
+
+    private static long micros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static int index(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int mantissa = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + mantissa;
+    }
+
+    private static long lowerBound(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        final int mantissa = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + mantissa) << shift;
+    }
+}
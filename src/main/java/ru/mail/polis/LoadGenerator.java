@@ -0,0 +1,155 @@
+/*
+ * Copyright 2020 (c) OK
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.mail.polis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.net.BinaryClient;
+import ru.mail.polis.net.Protocol;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a {@link Server} with pipelined random gets and puts and reports throughput and latency.
+ * Latency of every request is measured from right before it is sent until its response is received,
+ * so the time blocked on sending under server backpressure counts too.
+ *
+ * @author Alexander Marashov
+ */
+public final class LoadGenerator {
+    private static final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private LoadGenerator() {
+        // Not instantiable
+    }
+
+    /**
+     * Runs the load.
+     *
+     * @param args {@code [host [port [connections [seconds [pipelineDepth [keys [valueSize [readPercent]]]]]]]]}
+     */
+    public static void main(final String[] args) throws InterruptedException {
+        final String host = args.length > 0 ? args[0] : "localhost";
+        final int port = intArg(args, 1, Protocol.DEFAULT_PORT);
+        final int connections = intArg(args, 2, 4);
+        final int seconds = intArg(args, 3, 10);
+        final int depth = intArg(args, 4, 16);
+        final int keys = intArg(args, 5, 100_000);
+        final int valueSize = intArg(args, 6, 100);
+        final int readPercent = intArg(args, 7, 50);
+
+        final InetSocketAddress address = new InetSocketAddress(host, port);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final List<Worker> workers = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            final Worker worker = new Worker(address, deadline, depth, keys, valueSize, readPercent);
+            worker.setName("load-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+
+        final LatencyHistogram latencies = new LatencyHistogram();
+        long errors = 0;
+        for (final Worker worker : workers) {
+            worker.join();
+            latencies.add(worker.latencies);
+            errors += worker.errors;
+        }
+
+        log.info(
+                "{} ops in {} s over {} connections with pipeline depth {}: {} ops/s, {} errors",
+                latencies.getCount(),
+                seconds,
+                connections,
+                depth,
+                latencies.getCount() / seconds,
+                errors);
+        log.info("Latency {}", latencies.summary());
+    }
+
+    private static int intArg(
+            final String[] args,
+            final int index,
+            final int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    private static final class Worker extends Thread {
+        private final InetSocketAddress address;
+        private final long deadline;
+        private final int depth;
+        private final int keys;
+        private final int valueSize;
+        private final int readPercent;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private long errors;
+
+        Worker(
+                final InetSocketAddress address,
+                final long deadline,
+                final int depth,
+                final int keys,
+                final int valueSize,
+                final int readPercent) {
+            this.address = address;
+            this.deadline = deadline;
+            this.depth = depth;
+            this.keys = keys;
+            this.valueSize = valueSize;
+            this.readPercent = readPercent;
+        }
+
+        @Override
+        public void run() {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final byte[] value = new byte[valueSize];
+            random.nextBytes(value);
+            final long[] sent = new long[depth];
+
+            try (BinaryClient client = new BinaryClient(address)) {
+                while (System.nanoTime() < deadline) {
+                    for (int i = 0; i < depth; i++) {
+                        final ByteBuffer key = ByteBuffer.allocate(Long.BYTES).putLong(0, random.nextInt(keys));
+                        sent[i] = System.nanoTime();
+                        if (random.nextInt(100) < readPercent) {
+                            client.sendGet(key);
+                        } else {
+                            client.sendUpsert(key, ByteBuffer.wrap(value));
+                        }
+                    }
+                    client.flush();
+
+                    // Responses come in the order of requests
+                    for (int i = 0; i < depth; i++) {
+                        if (client.receive().getStatus() == BinaryClient.Response.Status.ERROR) {
+                            errors++;
+                        }
+                        latencies.record(System.nanoTime() - sent[i]);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
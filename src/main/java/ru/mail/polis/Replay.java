@@ -0,0 +1,316 @@
+/*
+ * Copyright 2020 (c) OK
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.mail.polis;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.trace.RecordingDAO;
+import ru.mail.polis.trace.TraceEvent;
+import ru.mail.polis.trace.TraceReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a trace recorded by {@link RecordingDAO} against a {@link DAOFactory#create} instance
+ * and reports throughput and latency.
+ *
+ * <p>Every recorded stream of operations is replayed by its own thread, so the concurrency
+ * of the recorded clients is reproduced. Operations are issued at the recorded times divided by the speedup,
+ * and latency is measured from the scheduled time. So if the storage falls behind,
+ * the queueing delay of the stream counts instead of being hidden by the slower pace.
+ * Values are random bytes of the recorded sizes.
+ *
+ * @author Alexander Marashov
+ */
+public final class Replay {
+    private static final Logger log = LoggerFactory.getLogger(Replay.class);
+    private static final String DATA = "replay";
+    // Events read ahead per stream, the trace is read no further while a stream is that far behind
+    private static final int MAX_QUEUED_EVENTS = 4096;
+
+    private Replay() {
+        // Not instantiable
+    }
+
+    /**
+     * Replays the trace.
+     *
+     * @param args {@code trace [data [speedup]]}, zero speedup replays as fast as possible
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: Replay trace [data [speedup]]");
+        }
+        final File data = new File(args.length > 1 ? args[1] : DATA);
+        final double speedup = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+        if (!data.exists() && !data.mkdir()) {
+            throw new IOException("Can't create directory: " + data);
+        }
+
+        final Report report;
+        try (TraceReader trace = new TraceReader(new File(args[0]));
+             DAO dao = DAOFactory.create(data)) {
+            report = replay(trace, dao, speedup);
+        }
+
+        final long count = report.replayed.getCount();
+        log.info(
+                "Replayed {} ops {} in {} ms: {} ops/s, {} not found, {} errors",
+                count,
+                report.ops,
+                TimeUnit.NANOSECONDS.toMillis(report.elapsedNanos),
+                count * TimeUnit.SECONDS.toNanos(1) / Math.max(report.elapsedNanos, 1L),
+                report.notFound,
+                report.errors);
+        log.info("Replayed latency {}", report.replayed.summary());
+        log.info("Recorded latency {}", report.recorded.summary());
+    }
+
+    @NotNull
+    static Report replay(
+            @NotNull final TraceReader trace,
+            @NotNull final DAO dao,
+            final double speedup) throws IOException {
+        final Map<Long, StreamReplayer> streams = new HashMap<>();
+        final long begin = System.nanoTime();
+        long origin = -1;
+        boolean completed = false;
+        try {
+            for (TraceEvent event = trace.next(); event != null; event = trace.next()) {
+                if (origin < 0) {
+                    origin = event.getStartMicros();
+                }
+
+                // Unscheduled ops start as soon as the previous ones of the stream are done
+                long scheduled = StreamReplayer.UNSCHEDULED;
+                if (speedup > 0) {
+                    final long offset = TimeUnit.MICROSECONDS.toNanos(event.getStartMicros() - origin);
+                    scheduled = begin + (long) (offset / speedup);
+                }
+                streams.computeIfAbsent(event.getStream(), stream -> StreamReplayer.start(dao, stream))
+                        .submit(event, scheduled);
+            }
+
+            final Report report = new Report();
+            for (final StreamReplayer stream : streams.values()) {
+                stream.finish();
+            }
+            for (final StreamReplayer stream : streams.values()) {
+                stream.join();
+                report.add(stream.report);
+            }
+            report.elapsedNanos = System.nanoTime() - begin;
+            completed = true;
+            return report;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while replaying", e);
+        } finally {
+            if (!completed) {
+                for (final StreamReplayer stream : streams.values()) {
+                    stream.abort();
+                }
+            }
+        }
+    }
+
+    private static void execute(
+            @NotNull final DAO dao,
+            @NotNull final TraceEvent event,
+            @NotNull final Values values) throws IOException {
+        final ByteBuffer key = event.getKey();
+        switch (event.getOp()) {
+            case GET:
+                dao.get(key);
+                break;
+            case PUT:
+                dao.upsert(key, values.of(Math.max(event.getValueSize(), 0)));
+                break;
+            case REMOVE:
+                dao.remove(key);
+                break;
+            case MERGE:
+                dao.merge(key, values.of(Math.max(event.getValueSize(), 0)));
+                break;
+            case ITERATE:
+                final Iterator<Record> records = dao.iterator(key);
+                if (records.hasNext()) {
+                    records.next();
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown op " + event.getOp());
+        }
+    }
+
+    /**
+     * Replay outcome.
+     */
+    static final class Report {
+        final LatencyHistogram replayed = new LatencyHistogram();
+        final LatencyHistogram recorded = new LatencyHistogram();
+        final Map<TraceEvent.Op, Long> ops = new EnumMap<>(TraceEvent.Op.class);
+        long notFound;
+        long errors;
+        long elapsedNanos;
+
+        void add(@NotNull final Report other) {
+            replayed.add(other.replayed);
+            recorded.add(other.recorded);
+            other.ops.forEach((op, count) -> ops.merge(op, count, Long::sum));
+            notFound += other.notFound;
+            errors += other.errors;
+        }
+    }
+
+    /**
+     * Replays the events of one stream in order at their scheduled times.
+     */
+    private static final class StreamReplayer extends Thread {
+        static final long UNSCHEDULED = Long.MIN_VALUE;
+        private static final Scheduled END = new Scheduled(null, UNSCHEDULED);
+
+        private final DAO dao;
+        private final BlockingQueue<Scheduled> events = new ArrayBlockingQueue<>(MAX_QUEUED_EVENTS);
+        private final Values values = new Values();
+        private final Report report = new Report();
+        private volatile boolean aborted;
+
+        private StreamReplayer(@NotNull final DAO dao) {
+            this.dao = dao;
+        }
+
+        @NotNull
+        static StreamReplayer start(
+                @NotNull final DAO dao,
+                final long stream) {
+            final StreamReplayer replayer = new StreamReplayer(dao);
+            replayer.setName("replay-" + stream);
+            replayer.start();
+            return replayer;
+        }
+
+        void submit(
+                @NotNull final TraceEvent event,
+                final long scheduled) throws InterruptedException {
+            events.put(new Scheduled(event, scheduled));
+        }
+
+        /**
+         * Lets the thread exit once the submitted events are replayed.
+         */
+        void finish() throws InterruptedException {
+            events.put(END);
+        }
+
+        /**
+         * Drops the events not replayed yet and waits for the current one, the thread is never interrupted
+         * not to close the storage files it reads.
+         */
+        void abort() {
+            aborted = true;
+            LockSupport.unpark(this);
+            events.clear();
+            // There is room for it, only the caller thread submits events
+            events.offer(END);
+            Uninterruptibles.joinUninterruptibly(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Scheduled next = events.take(); next != END && !aborted; next = events.take()) {
+                    replay(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void replay(@NotNull final Scheduled next) {
+            final TraceEvent event = next.event;
+            assert event != null;
+            long scheduled = next.scheduled;
+            if (scheduled == UNSCHEDULED) {
+                scheduled = System.nanoTime();
+            } else {
+                for (long now = System.nanoTime(); now < scheduled; now = System.nanoTime()) {
+                    if (aborted) {
+                        return;
+                    }
+                    LockSupport.parkNanos(scheduled - now);
+                }
+            }
+
+            try {
+                execute(dao, event, values);
+            } catch (NoSuchElementException e) {
+                report.notFound++;
+            } catch (IOException | RuntimeException e) {
+                log.debug("Replayed op failed", e);
+                report.errors++;
+            }
+            report.replayed.record(System.nanoTime() - scheduled);
+            report.recorded.record(TimeUnit.MICROSECONDS.toNanos(event.getLatencyMicros()));
+            report.ops.merge(event.getOp(), 1L, Long::sum);
+        }
+    }
+
+    private static final class Scheduled {
+        @Nullable
+        final TraceEvent event;
+        final long scheduled;
+
+        Scheduled(
+                @Nullable final TraceEvent event,
+                final long scheduled) {
+            this.event = event;
+            this.scheduled = scheduled;
+        }
+    }
+
+    /**
+     * Random values of any size sharing the same bytes.
+     */
+    private static final class Values {
+        private byte[] bytes = new byte[0];
+
+        @NotNull
+        ByteBuffer of(final int size) {
+            if (size > bytes.length) {
+                bytes = new byte[Math.max(size, bytes.length * 2)];
+                ThreadLocalRandom.current().nextBytes(bytes);
+            }
+            return ByteBuffer.wrap(bytes, 0, size);
+        }
+    }
+}
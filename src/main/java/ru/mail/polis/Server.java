@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 (c) OK
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.mail.polis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.net.BinaryServer;
+import ru.mail.polis.net.Protocol;
+import ru.mail.polis.trace.RecordingDAO;
+import ru.mail.polis.trace.TraceWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Serves {@link DAO} over the binary {@link Protocol}.
+ *
+ * @author Alexander Marashov
+ */
+public final class Server {
+    private static final Logger log = LoggerFactory.getLogger(Server.class);
+    private static final String DATA = "data";
+
+    private Server() {
+        // Not instantiable
+    }
+
+    /**
+     * Serves DB stored in the working directory until the process is terminated.
+     *
+     * @param args {@code [port [trace]]} to listen on and to record operations to
+     */
+    public static void main(final String[] args) throws IOException {
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : Protocol.DEFAULT_PORT;
+        final File data = new File(DATA);
+        if (!data.exists() && !data.mkdir()) {
+            throw new IOException("Can't create directory: " + data);
+        }
+        if (!data.isDirectory()) {
+            throw new IOException("Not directory: " + data);
+        }
+
+        final DAO dao = args.length > 1
+                ? new RecordingDAO(DAOFactory.create(data), new TraceWriter(new File(args[1])))
+                : DAOFactory.create(data);
+        final BinaryServer server = new BinaryServer(dao, new InetSocketAddress(port));
+        final CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            try {
+                stopped.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+
+        log.info("Serving {} on port {}", data.getAbsolutePath(), server.getPort());
+        try {
+            server.serve();
+        } finally {
+            dao.close();
+            stopped.countDown();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package ru.mail.polis.marashov;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * LRU cache of {@link SSTable} metadata blocks bounded by their total size,
+ * so only the blocks of recently accessed partitions occupy the heap.
+ *
+ * @author Alexander Marashov
+ */
+final class BlockCache {
+    // Approximate heap footprint of a cache entry and buffer header
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final Cache<Key, ByteBuffer> cache;
+    private final BlockCacheMetrics metrics;
+
+    BlockCache(
+            final long capacityBytes,
+            @NotNull final BlockCacheMetrics metrics) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(capacityBytes)
+                .weigher((Key key, ByteBuffer block) -> block.remaining() + ENTRY_OVERHEAD)
+                .build();
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the block at the offset of the table loading it if it isn't cached.
+     */
+    @NotNull
+    ByteBuffer get(
+            final long table,
+            final long offset,
+            @NotNull final Loader loader) throws IOException {
+        final Key key = new Key(table, offset);
+        final ByteBuffer cached = cache.getIfPresent(key);
+        if (cached != null) {
+            metrics.hit();
+            return cached.duplicate();
+        }
+
+        try {
+            return cache.get(key, () -> {
+                final ByteBuffer block = loader.load();
+                metrics.loaded(block.remaining());
+                return block;
+            }).duplicate();
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Can't load block " + offset, e.getCause());
+        }
+    }
+
+    /**
+     * Drops the blocks of the table which is not going to be read anymore.
+     */
+    void invalidate(final long table) {
+        cache.asMap().keySet().removeIf(key -> key.table == table);
+    }
+
+    @FunctionalInterface
+    interface Loader {
+        @NotNull
+        ByteBuffer load() throws IOException;
+    }
+
+    private static final class Key {
+        private final long table;
+        private final long offset;
+
+        Key(
+                final long table,
+                final long offset) {
+            this.table = table;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return table == other.table && offset == other.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(table, offset);
+        }
+    }
+}
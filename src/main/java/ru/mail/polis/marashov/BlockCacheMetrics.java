@@ -0,0 +1,38 @@
+package ru.mail.polis.marashov;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index and filter block cache counters of a {@link LsmDAO}.
+ *
+ * @author Alexander Marashov
+ */
+public final class BlockCacheMetrics {
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loadedBytes = new AtomicLong();
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of blocks read from disk.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getLoadedBytes() {
+        return loadedBytes.get();
+    }
+
+    void hit() {
+        hits.incrementAndGet();
+    }
+
+    void loaded(final long bytes) {
+        misses.incrementAndGet();
+        loadedBytes.addAndGet(bytes);
+    }
+}
@@ -0,0 +1,65 @@
+package ru.mail.polis.marashov;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter block of an {@link SSTable} index partition with about 1% false positives.
+ *
+ * <p>Bits are probed by double hashing of a 64-bit key hash.
+ *
+ * @author Alexander Marashov
+ */
+final class BloomFilter {
+    private static final int BITS_PER_KEY = 10;
+    private static final int PROBES = 7;
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private BloomFilter() {
+        // Not instantiable
+    }
+
+    static long hash(@NotNull final ByteBuffer key) {
+        return HASH.hashBytes(key.duplicate()).asLong();
+    }
+
+    /**
+     * Builds the filter bits of the keys with the given {@link #hash}es.
+     */
+    @NotNull
+    static ByteBuffer build(
+            @NotNull final long[] hashes,
+            final int count) {
+        final ByteBuffer filter = ByteBuffer.allocate(Math.max(Long.BYTES, (count * BITS_PER_KEY + 7) / 8));
+        final long bits = (long) filter.capacity() * Byte.SIZE;
+        for (int i = 0; i < count; i++) {
+            final int h1 = (int) hashes[i];
+            final int h2 = (int) (hashes[i] >>> Integer.SIZE);
+            for (int probe = 0; probe < PROBES; probe++) {
+                final long bit = Math.floorMod(h1 + (long) probe * h2, bits);
+                final int index = (int) (bit / Byte.SIZE);
+                filter.put(index, (byte) (filter.get(index) | 1 << (int) (bit % Byte.SIZE)));
+            }
+        }
+        return filter;
+    }
+
+    static boolean mightContain(
+            @NotNull final ByteBuffer filter,
+            final long hash) {
+        final long bits = (long) filter.remaining() * Byte.SIZE;
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> Integer.SIZE);
+        for (int probe = 0; probe < PROBES; probe++) {
+            final long bit = Math.floorMod(h1 + (long) probe * h2, bits);
+            final int index = filter.position() + (int) (bit / Byte.SIZE);
+            if ((filter.get(index) & 1 << (int) (bit % Byte.SIZE)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
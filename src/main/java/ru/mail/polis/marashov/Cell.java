@@ -0,0 +1,49 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * Key with its {@link Value} and the generation of the {@link Table} it came from.
+ *
+ * @author Alexander Marashov
+ */
+final class Cell {
+    /**
+     * Ascending by key, the freshest generation first among equal keys.
+     */
+    static final Comparator<Cell> COMPARATOR = Comparator
+            .comparing(Cell::getKey)
+            .thenComparing(Comparator.comparingLong(Cell::getGeneration).reversed());
+
+    @NotNull
+    private final ByteBuffer key;
+    @NotNull
+    private final Value value;
+    private final long generation;
+
+    Cell(
+            @NotNull final ByteBuffer key,
+            @NotNull final Value value,
+            final long generation) {
+        this.key = key;
+        this.value = value;
+        this.generation = generation;
+    }
+
+    @NotNull
+    ByteBuffer getKey() {
+        return key.asReadOnlyBuffer();
+    }
+
+    @NotNull
+    Value getValue() {
+        return value;
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+}
@@ -0,0 +1,141 @@
+package ru.mail.polis.marashov;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * {@link Cell} iterator utilities.
+ *
+ * @author Alexander Marashov
+ */
+final class Cells {
+    private Cells() {
+        // Not instantiable
+    }
+
+    /**
+     * Resolves every key of cells merged from all the tables down to the freshest cell,
+     * applying pending {@link MergeOperator} operands to the older value if any.
+     * If the operands can't be applied, {@link Iterator#next()} throws {@link UncheckedIOException}
+     * with {@link MergeException}.
+     *
+     * @param cells ordered by {@link Cell#COMPARATOR}
+     * @param operator to apply operands, they are unexpected if absent
+     */
+    @NotNull
+    static Iterator<Cell> resolve(
+            @NotNull final Iterator<Cell> cells,
+            @Nullable final MergeOperator operator) {
+        return resolve(cells, operator, false);
+    }
+
+    /**
+     * Resolves cells like {@link #resolve(Iterator, MergeOperator)}, but keeps the value and operands
+     * of a key as they are if the operands can't be applied, so a bad value can't stop compaction.
+     */
+    @NotNull
+    static Iterator<Cell> resolveKeepingUnmerged(
+            @NotNull final Iterator<Cell> cells,
+            @Nullable final MergeOperator operator) {
+        return resolve(cells, operator, true);
+    }
+
+    @NotNull
+    private static Iterator<Cell> resolve(
+            @NotNull final Iterator<Cell> cells,
+            @Nullable final MergeOperator operator,
+            final boolean keepUnmerged) {
+        final PeekingIterator<Cell> source = Iterators.peekingIterator(cells);
+        return new AbstractIterator<>() {
+            @Override
+            protected Cell computeNext() {
+                if (!source.hasNext()) {
+                    return endOfData();
+                }
+
+                final Cell freshest = source.next();
+                final ByteBuffer key = freshest.getKey();
+                if (!freshest.getValue().isOperands() && !freshest.getValue().isUnmerged()) {
+                    skip(key);
+                    return freshest;
+                }
+
+                // Freshest first
+                final List<List<ByteBuffer>> pending = new ArrayList<>();
+                Value base = freshest.getValue();
+                if (base.isOperands()) {
+                    pending.add(base.getOperands());
+                    base = Value.tombstone();
+                    while (source.hasNext() && source.peek().getKey().equals(key)) {
+                        final Value older = source.next().getValue();
+                        if (!older.isOperands()) {
+                            base = older;
+                            break;
+                        }
+                        pending.add(older.getOperands());
+                    }
+                }
+                skip(key);
+
+                ByteBuffer value = null;
+                if (!base.isTombstone()) {
+                    value = base.getData();
+                    if (base.isUnmerged()) {
+                        pending.add(base.getOperands());
+                    }
+                }
+                // Oldest first
+                final List<ByteBuffer> operands = new ArrayList<>();
+                for (int i = pending.size() - 1; i >= 0; i--) {
+                    operands.addAll(pending.get(i));
+                }
+
+                try {
+                    return new Cell(key, Value.of(apply(value, operands, operator)), freshest.getGeneration());
+                } catch (RuntimeException e) {
+                    if (!keepUnmerged) {
+                        throw new UncheckedIOException(new MergeException("Can't merge: " + e.getMessage(), e));
+                    }
+                    // There is no older data left to apply the operands to, if there is no value
+                    final Value unmerged = value == null
+                            ? Value.operands(operands)
+                            : Value.unmerged(value, operands);
+                    return new Cell(key, unmerged, freshest.getGeneration());
+                }
+            }
+
+            private void skip(@NotNull final ByteBuffer key) {
+                while (source.hasNext() && source.peek().getKey().equals(key)) {
+                    source.next();
+                }
+            }
+        };
+    }
+
+    @NotNull
+    private static ByteBuffer apply(
+            @Nullable final ByteBuffer value,
+            @NotNull final List<ByteBuffer> operands,
+            @Nullable final MergeOperator operator) {
+        if (operator == null) {
+            throw new IllegalStateException("Found merge operands, but no merge operator is configured");
+        }
+
+        ByteBuffer result = value;
+        for (final ByteBuffer operand : operands) {
+            result = operator.merge(result, operand.asReadOnlyBuffer());
+        }
+        // There is at least one operand
+        assert result != null;
+        return result;
+    }
+}
@@ -0,0 +1,21 @@
+package ru.mail.polis.marashov;
+
+/**
+ * Defines how often record checksums are verified on the read path.
+ *
+ * @author Alexander Marashov
+ */
+public enum ChecksumMode {
+    /**
+     * Every record read from disk is verified.
+     */
+    ALWAYS,
+    /**
+     * Every {@link Config#getChecksumSamplePeriod()}-th record read from disk is verified.
+     */
+    SAMPLED,
+    /**
+     * Checksums are written but never verified on the read path (the scrubber still checks them).
+     */
+    OFF
+}
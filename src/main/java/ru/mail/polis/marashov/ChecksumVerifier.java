@@ -0,0 +1,43 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which reads are verified according to the configured {@link ChecksumMode}.
+ *
+ * @author Alexander Marashov
+ */
+final class ChecksumVerifier {
+    private final ChecksumMode mode;
+    private final int samplePeriod;
+    private final IntegrityMetrics metrics;
+    private final AtomicLong reads = new AtomicLong();
+
+    ChecksumVerifier(
+            @NotNull final ChecksumMode mode,
+            final int samplePeriod,
+            @NotNull final IntegrityMetrics metrics) {
+        this.mode = mode;
+        this.samplePeriod = samplePeriod;
+        this.metrics = metrics;
+    }
+
+    boolean shouldVerify() {
+        switch (mode) {
+            case ALWAYS:
+                return true;
+            case SAMPLED:
+                return reads.getAndIncrement() % samplePeriod == 0;
+            case OFF:
+                return false;
+            default:
+                throw new IllegalStateException("Unknown mode: " + mode);
+        }
+    }
+
+    void failed() {
+        metrics.checksumFailed();
+    }
+}
@@ -0,0 +1,42 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * Utility methods for CRC32C checksums of on-disk records.
+ *
+ * @author Alexander Marashov
+ */
+final class Checksums {
+    static final int SIZE = Integer.BYTES;
+
+    private Checksums() {
+        // Not instantiable
+    }
+
+    /**
+     * Computes CRC32C of the remaining bytes without moving the buffer position.
+     */
+    static int crc32c(@NotNull final ByteBuffer buffer) {
+        final CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Checks a record whose last {@link #SIZE} bytes hold the checksum of the preceding ones.
+     */
+    static boolean matches(@NotNull final ByteBuffer record) {
+        if (record.remaining() < SIZE) {
+            return false;
+        }
+
+        final int checksumPosition = record.limit() - SIZE;
+        final ByteBuffer body = record.duplicate();
+        body.limit(checksumPosition);
+        return crc32c(body) == record.getInt(checksumPosition);
+    }
+}
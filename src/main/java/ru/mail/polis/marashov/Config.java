@@ -0,0 +1,348 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Tuning parameters of {@link LsmDAO}.
+ *
+ * @author Alexander Marashov
+ */
+public final class Config {
+    private static final long DEFAULT_FLUSH_THRESHOLD = 4L * 1024 * 1024;
+    private static final int DEFAULT_SOFT_PENDING_FLUSHES = 2;
+    private static final int DEFAULT_HARD_PENDING_FLUSHES = 4;
+    private static final int DEFAULT_CHECKSUM_SAMPLE_PERIOD = 16;
+    private static final long DEFAULT_SCRUB_RATE = 4L * 1024 * 1024;
+    private static final long DEFAULT_SCRUB_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+    private static final int DEFAULT_COMPACTION_TABLE_COUNT = 4;
+    private static final int DEFAULT_SOFT_TABLE_COUNT = 8;
+    private static final int DEFAULT_HARD_TABLE_COUNT = 16;
+    private static final long DEFAULT_MAX_WRITE_DELAY = 10L;
+    private static final long DEFAULT_STALL_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    private static final int DEFAULT_INDEX_PARTITION_SIZE = 512;
+    private static final long DEFAULT_BLOCK_CACHE_BYTES = 8L * 1024 * 1024;
+
+    private final long flushThresholdBytes;
+    private final ChecksumMode checksumMode;
+    private final int checksumSamplePeriod;
+    private final long scrubBytesPerSecond;
+    private final long scrubIntervalMillis;
+    private final long softPendingFlushBytes;
+    private final long hardPendingFlushBytes;
+    private final int compactionTableCount;
+    private final int softTableCount;
+    private final int hardTableCount;
+    private final long maxWriteDelayMillis;
+    private final long stallTimeoutMillis;
+    private final long rowCacheBytes;
+    @Nullable
+    private final MergeOperator mergeOperator;
+    private final int indexPartitionSize;
+    private final long blockCacheBytes;
+
+    private Config(@NotNull final Builder builder) {
+        this.flushThresholdBytes = builder.flushThresholdBytes;
+        this.checksumMode = builder.checksumMode;
+        this.checksumSamplePeriod = builder.checksumSamplePeriod;
+        this.scrubBytesPerSecond = builder.scrubBytesPerSecond;
+        this.scrubIntervalMillis = builder.scrubIntervalMillis;
+        this.softPendingFlushBytes = builder.softPendingFlushBytes();
+        this.hardPendingFlushBytes = builder.hardPendingFlushBytes();
+        this.compactionTableCount = builder.compactionTableCount;
+        this.softTableCount = builder.softTableCount;
+        this.hardTableCount = builder.hardTableCount;
+        this.maxWriteDelayMillis = builder.maxWriteDelayMillis;
+        this.stallTimeoutMillis = builder.stallTimeoutMillis;
+        this.rowCacheBytes = builder.rowCacheBytes;
+        this.mergeOperator = builder.mergeOperator;
+        this.indexPartitionSize = builder.indexPartitionSize;
+        this.blockCacheBytes = builder.blockCacheBytes;
+    }
+
+    @NotNull
+    public static Config defaults() {
+        return builder().build();
+    }
+
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Size of the in-memory table triggering a flush to disk.
+     */
+    public long getFlushThresholdBytes() {
+        return flushThresholdBytes;
+    }
+
+    @NotNull
+    public ChecksumMode getChecksumMode() {
+        return checksumMode;
+    }
+
+    /**
+     * One of how many reads is verified in {@link ChecksumMode#SAMPLED} mode.
+     */
+    public int getChecksumSamplePeriod() {
+        return checksumSamplePeriod;
+    }
+
+    /**
+     * Scrubber read rate limit, zero disables background scrubbing.
+     */
+    public long getScrubBytesPerSecond() {
+        return scrubBytesPerSecond;
+    }
+
+    /**
+     * Pause between background scrubber passes.
+     */
+    public long getScrubIntervalMillis() {
+        return scrubIntervalMillis;
+    }
+
+    /**
+     * Size of in-memory tables waiting for flush at which writes start being delayed,
+     * two flush thresholds by default.
+     */
+    public long getSoftPendingFlushBytes() {
+        return softPendingFlushBytes;
+    }
+
+    /**
+     * Size of in-memory tables waiting for flush at which writes are blocked,
+     * four flush thresholds by default.
+     */
+    public long getHardPendingFlushBytes() {
+        return hardPendingFlushBytes;
+    }
+
+    /**
+     * Number of tables triggering a background compaction.
+     */
+    public int getCompactionTableCount() {
+        return compactionTableCount;
+    }
+
+    /**
+     * Number of tables at which writes start being delayed.
+     */
+    public int getSoftTableCount() {
+        return softTableCount;
+    }
+
+    /**
+     * Number of tables at which writes are blocked.
+     */
+    public int getHardTableCount() {
+        return hardTableCount;
+    }
+
+    /**
+     * Delay of a write right below the hard limits, it grows linearly from zero at the soft limits.
+     */
+    public long getMaxWriteDelayMillis() {
+        return maxWriteDelayMillis;
+    }
+
+    /**
+     * How long a write may be blocked by the hard limits before {@link WriteStallException}.
+     */
+    public long getStallTimeoutMillis() {
+        return stallTimeoutMillis;
+    }
+
+    /**
+     * Capacity of the cache of point lookup results, zero disables it.
+     */
+    public long getRowCacheBytes() {
+        return rowCacheBytes;
+    }
+
+    /**
+     * Operator applying {@link LsmDAO#merge} operands, merges aren't supported if absent.
+     * It must stay the same for the storage as long as it may contain operands.
+     */
+    @Nullable
+    public MergeOperator getMergeOperator() {
+        return mergeOperator;
+    }
+
+    /**
+     * Number of records per index and Bloom filter partition of new tables.
+     */
+    public int getIndexPartitionSize() {
+        return indexPartitionSize;
+    }
+
+    /**
+     * Capacity of the cache of table index and filter partitions.
+     */
+    public long getBlockCacheBytes() {
+        return blockCacheBytes;
+    }
+
+    /**
+     * {@link Config} builder starting with the default values.
+     */
+    public static final class Builder {
+        private long flushThresholdBytes = DEFAULT_FLUSH_THRESHOLD;
+        private ChecksumMode checksumMode = ChecksumMode.ALWAYS;
+        private int checksumSamplePeriod = DEFAULT_CHECKSUM_SAMPLE_PERIOD;
+        private long scrubBytesPerSecond = DEFAULT_SCRUB_RATE;
+        private long scrubIntervalMillis = DEFAULT_SCRUB_INTERVAL;
+        // Zero to follow the flush threshold
+        private long softPendingFlushBytes;
+        private long hardPendingFlushBytes;
+        private int compactionTableCount = DEFAULT_COMPACTION_TABLE_COUNT;
+        private int softTableCount = DEFAULT_SOFT_TABLE_COUNT;
+        private int hardTableCount = DEFAULT_HARD_TABLE_COUNT;
+        private long maxWriteDelayMillis = DEFAULT_MAX_WRITE_DELAY;
+        private long stallTimeoutMillis = DEFAULT_STALL_TIMEOUT;
+        private long rowCacheBytes;
+        @Nullable
+        private MergeOperator mergeOperator;
+        private int indexPartitionSize = DEFAULT_INDEX_PARTITION_SIZE;
+        private long blockCacheBytes = DEFAULT_BLOCK_CACHE_BYTES;
+
+        private Builder() {
+            // Use Config.builder()
+        }
+
+        @NotNull
+        public Builder flushThresholdBytes(final long bytes) {
+            checkArgument(bytes > 0, "Non-positive flush threshold: %s", bytes);
+            this.flushThresholdBytes = bytes;
+            return this;
+        }
+
+        @NotNull
+        public Builder checksumMode(@NotNull final ChecksumMode mode) {
+            this.checksumMode = mode;
+            return this;
+        }
+
+        @NotNull
+        public Builder checksumSamplePeriod(final int period) {
+            checkArgument(period > 0, "Non-positive sample period: %s", period);
+            this.checksumSamplePeriod = period;
+            return this;
+        }
+
+        @NotNull
+        public Builder scrubBytesPerSecond(final long bytesPerSecond) {
+            checkArgument(bytesPerSecond >= 0, "Negative scrub rate: %s", bytesPerSecond);
+            this.scrubBytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        @NotNull
+        public Builder scrubIntervalMillis(final long millis) {
+            checkArgument(millis > 0, "Non-positive scrub interval: %s", millis);
+            this.scrubIntervalMillis = millis;
+            return this;
+        }
+
+        @NotNull
+        public Builder pendingFlushBytesLimits(
+                final long soft,
+                final long hard) {
+            checkArgument(0 < soft && soft < hard, "Bad pending flush limits: %s, %s", soft, hard);
+            this.softPendingFlushBytes = soft;
+            this.hardPendingFlushBytes = hard;
+            return this;
+        }
+
+        @NotNull
+        public Builder compactionTableCount(final int count) {
+            checkArgument(count > 1, "Compaction needs at least two tables: %s", count);
+            this.compactionTableCount = count;
+            return this;
+        }
+
+        @NotNull
+        public Builder tableCountLimits(
+                final int soft,
+                final int hard) {
+            checkArgument(0 < soft && soft < hard, "Bad table count limits: %s, %s", soft, hard);
+            this.softTableCount = soft;
+            this.hardTableCount = hard;
+            return this;
+        }
+
+        @NotNull
+        public Builder maxWriteDelayMillis(final long millis) {
+            checkArgument(millis >= 0, "Negative write delay: %s", millis);
+            this.maxWriteDelayMillis = millis;
+            return this;
+        }
+
+        @NotNull
+        public Builder stallTimeoutMillis(final long millis) {
+            checkArgument(millis >= 0, "Negative stall timeout: %s", millis);
+            this.stallTimeoutMillis = millis;
+            return this;
+        }
+
+        @NotNull
+        public Builder rowCacheBytes(final long bytes) {
+            checkArgument(bytes >= 0, "Negative row cache capacity: %s", bytes);
+            this.rowCacheBytes = bytes;
+            return this;
+        }
+
+        @NotNull
+        public Builder mergeOperator(@NotNull final MergeOperator operator) {
+            this.mergeOperator = operator;
+            return this;
+        }
+
+        @NotNull
+        public Builder indexPartitionSize(final int records) {
+            checkArgument(records > 0, "Non-positive index partition size: %s", records);
+            this.indexPartitionSize = records;
+            return this;
+        }
+
+        @NotNull
+        public Builder blockCacheBytes(final long bytes) {
+            checkArgument(bytes >= 0, "Negative block cache capacity: %s", bytes);
+            this.blockCacheBytes = bytes;
+            return this;
+        }
+
+        @NotNull
+        public Config build() {
+            checkArgument(
+                    compactionTableCount < hardTableCount,
+                    "Compaction table count %s must be below the hard limit %s",
+                    compactionTableCount,
+                    hardTableCount);
+            // Otherwise every switched in-memory table blocks writes until it is flushed
+            checkArgument(
+                    hardPendingFlushBytes() > flushThresholdBytes,
+                    "Hard pending flush limit %s must be above the flush threshold %s",
+                    hardPendingFlushBytes(),
+                    flushThresholdBytes);
+            return new Config(this);
+        }
+
+        private long softPendingFlushBytes() {
+            return softPendingFlushBytes > 0
+                    ? softPendingFlushBytes
+                    : DEFAULT_SOFT_PENDING_FLUSHES * flushThresholdBytes;
+        }
+
+        private long hardPendingFlushBytes() {
+            return hardPendingFlushBytes > 0
+                    ? hardPendingFlushBytes
+                    : DEFAULT_HARD_PENDING_FLUSHES * flushThresholdBytes;
+        }
+    }
+}
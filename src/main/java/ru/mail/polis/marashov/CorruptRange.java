@@ -0,0 +1,41 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Byte range of a table file [from, to) covering records with mismatching checksums.
+ *
+ * @author Alexander Marashov
+ */
+public final class CorruptRange {
+    private final String table;
+    private final long from;
+    private final long to;
+
+    CorruptRange(
+            @NotNull final String table,
+            final long from,
+            final long to) {
+        this.table = table;
+        this.from = from;
+        this.to = to;
+    }
+
+    @NotNull
+    public String getTable() {
+        return table;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    @Override
+    public String toString() {
+        return table + "[" + from + ", " + to + ")";
+    }
+}
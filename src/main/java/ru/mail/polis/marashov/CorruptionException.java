@@ -0,0 +1,18 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Thrown when on-disk bytes don't match their checksum.
+ *
+ * @author Alexander Marashov
+ */
+public class CorruptionException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    CorruptionException(@NotNull final String message) {
+        super(message);
+    }
+}
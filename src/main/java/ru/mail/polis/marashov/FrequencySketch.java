@@ -0,0 +1,73 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Count-min sketch of recent key popularity with 4-bit saturating counters.
+ * All the counters are halved once enough increments are sampled, so the history ages.
+ *
+ * @author Alexander Marashov
+ */
+final class FrequencySketch {
+    private static final int MAX_COUNT = 15;
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L,
+            0xC2B2AE3D27D4EB4FL,
+            0x165667B19E3779F9L,
+            0xD6E8FEB86659FD93L
+    };
+
+    private final byte[][] counters = new byte[SEEDS.length][];
+    private final int bits;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(final int expectedEntries) {
+        final int width = Integer.highestOneBit(Math.max(expectedEntries, 1) - 1) << 1;
+        this.bits = Math.max(Integer.numberOfTrailingZeros(width), 1);
+        for (int i = 0; i < SEEDS.length; i++) {
+            counters[i] = new byte[1 << bits];
+        }
+        this.sampleSize = 10 << bits;
+    }
+
+    void increment(@NotNull final ByteBuffer key) {
+        final int hash = key.hashCode();
+        for (int i = 0; i < SEEDS.length; i++) {
+            final int index = index(hash, i);
+            if (counters[i][index] < MAX_COUNT) {
+                counters[i][index]++;
+            }
+        }
+
+        if (++additions == sampleSize) {
+            age();
+        }
+    }
+
+    int frequency(@NotNull final ByteBuffer key) {
+        final int hash = key.hashCode();
+        int result = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            result = Math.min(result, counters[i][index(hash, i)]);
+        }
+        return result;
+    }
+
+    private int index(
+            final int hash,
+            final int row) {
+        return (int) (((hash + SEEDS[row]) * SEEDS[row]) >>> (Long.SIZE - bits));
+    }
+
+    private void age() {
+        for (final byte[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        additions /= 2;
+    }
+}
@@ -0,0 +1,80 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checksum verification and scrubbing counters of a {@link LsmDAO}.
+ *
+ * @author Alexander Marashov
+ */
+public final class IntegrityMetrics {
+    private final AtomicLong checksumFailures = new AtomicLong();
+    private final AtomicLong bytesScrubbed = new AtomicLong();
+    private final AtomicLong scrubPasses = new AtomicLong();
+    // By SSTable id, the tables replaced by compaction may have the same file name
+    private final Map<Long, List<CorruptRange>> corruptRanges = new ConcurrentHashMap<>();
+
+    /**
+     * Number of checksum mismatches detected on the read path.
+     */
+    public long getChecksumFailures() {
+        return checksumFailures.get();
+    }
+
+    public long getBytesScrubbed() {
+        return bytesScrubbed.get();
+    }
+
+    /**
+     * Number of completed scrubber walks over all the tables.
+     */
+    public long getScrubPasses() {
+        return scrubPasses.get();
+    }
+
+    /**
+     * Corrupt ranges found by the latest scrub of every live table.
+     */
+    @NotNull
+    public List<CorruptRange> getCorruptRanges() {
+        final List<CorruptRange> result = new ArrayList<>();
+        for (final List<CorruptRange> ranges : corruptRanges.values()) {
+            result.addAll(ranges);
+        }
+        return result;
+    }
+
+    void checksumFailed() {
+        checksumFailures.incrementAndGet();
+    }
+
+    void tableAdded(final long table) {
+        corruptRanges.putIfAbsent(table, List.of());
+    }
+
+    /**
+     * Records the scrub result unless the table has been removed while being scrubbed.
+     */
+    void tableScrubbed(
+            final long table,
+            final long bytes,
+            @NotNull final Collection<CorruptRange> corrupt) {
+        bytesScrubbed.addAndGet(bytes);
+        corruptRanges.replace(table, List.copyOf(corrupt));
+    }
+
+    void tableRemoved(final long table) {
+        corruptRanges.remove(table);
+    }
+
+    void passCompleted() {
+        scrubPasses.incrementAndGet();
+    }
+}
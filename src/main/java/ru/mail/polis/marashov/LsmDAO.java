@@ -0,0 +1,726 @@
+package ru.mail.polis.marashov;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.DAO;
+import ru.mail.polis.Record;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Log-structured merge tree {@link DAO}: writes go to a {@link MemTable}
+ * which is flushed in background to a new {@link SSTable} generation when it grows too big.
+ * Tables are merged by a background full compaction once there are too many of them.
+ *
+ * @author Alexander Marashov
+ */
+public final class LsmDAO implements DAO {
+    private static final Logger log = LoggerFactory.getLogger(LsmDAO.class);
+    private static final Pattern TABLE_NAME = Pattern.compile("(\\d+)" + Pattern.quote(SSTable.SUFFIX));
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final long MIN_RETRY_MILLIS = 100;
+    private static final long MAX_RETRY_MILLIS = 10_000;
+
+    private final File storage;
+    private final Config config;
+    private final IntegrityMetrics integrityMetrics = new IntegrityMetrics();
+    private final ChecksumVerifier verifier;
+    private final WriteController writeController;
+    private final RowCacheMetrics rowCacheMetrics = new RowCacheMetrics();
+    private final BlockCacheMetrics blockCacheMetrics = new BlockCacheMetrics();
+    private final BlockCache blockCache;
+    @Nullable
+    private final RowCache rowCache;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Oldest first
+    private final Deque<MemTable> flushing = new ConcurrentLinkedDeque<>();
+    private final NavigableMap<Long, SSTable> tables = new ConcurrentSkipListMap<>();
+    private final ScheduledExecutorService flusher;
+    private final ScheduledExecutorService compactor;
+    // Accessed by the flusher thread only
+    private long flushRetryMillis = MIN_RETRY_MILLIS;
+    private boolean flushRetryScheduled;
+    @Nullable
+    private volatile ScheduledFuture<?> flushRetry;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    // Accessed by the compactor thread only
+    private long compactionRetryMillis = MIN_RETRY_MILLIS;
+    @Nullable
+    private volatile ScheduledFuture<?> compactionRetry;
+    @Nullable
+    private final Scrubber scrubber;
+
+    private volatile MemTable memTable;
+    private volatile boolean closed;
+
+    /**
+     * Opens storage in the given directory creating no files until the first flush.
+     */
+    public LsmDAO(
+            @NotNull final File storage,
+            @NotNull final Config config) throws IOException {
+        this.storage = storage;
+        this.config = config;
+        this.verifier = new ChecksumVerifier(
+                config.getChecksumMode(),
+                config.getChecksumSamplePeriod(),
+                integrityMetrics);
+        this.writeController = new WriteController(config, this::pendingFlushBytes, tables::size);
+        this.blockCache = new BlockCache(config.getBlockCacheBytes(), blockCacheMetrics);
+        this.rowCache = config.getRowCacheBytes() > 0
+                ? new RowCache(config.getRowCacheBytes(), rowCacheMetrics)
+                : null;
+
+        final File[] files = storage.listFiles();
+        if (files == null) {
+            throw new IOException("Can't list " + storage);
+        }
+        try {
+            for (final File file : files) {
+                if (file.getName().endsWith(SSTable.TEMP_SUFFIX)) {
+                    // Leftover of an interrupted flush or compaction
+                    Files.delete(file.toPath());
+                    continue;
+                }
+
+                final Matcher matcher = TABLE_NAME.matcher(file.getName());
+                if (matcher.matches()) {
+                    final long generation = Long.parseLong(matcher.group(1));
+                    tables.put(generation, openTable(file, generation));
+                }
+            }
+            removeSuperseded();
+        } catch (IOException e) {
+            closeTables();
+            throw e;
+        }
+        this.memTable = new MemTable(tables.isEmpty() ? 0L : tables.lastKey() + 1);
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("flusher-%d").build());
+        this.compactor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("compactor-%d").build());
+        scheduleCompactionIfNeeded();
+
+        if (config.getScrubBytesPerSecond() > 0) {
+            this.scrubber = new Scrubber(
+                    this::retainTables,
+                    integrityMetrics,
+                    config.getScrubBytesPerSecond(),
+                    config.getScrubIntervalMillis());
+        } else {
+            this.scrubber = null;
+        }
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+        final Iterator<Cell> alive = Iterators.filter(cells(from), cell -> !cell.getValue().isTombstone());
+        return Iterators.transform(alive, cell -> Record.of(cell.getKey(), cell.getValue().getData()));
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException {
+        if (rowCache == null) {
+            return lookup(key);
+        }
+
+        final ByteBuffer cached = rowCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final long stamp = rowCache.stamp(key);
+        final ByteBuffer value = lookup(key);
+        rowCache.put(key, value, stamp);
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws WriteStallException if flushes or compactions don't catch up within the stall timeout
+     */
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        writeController.beforeWrite();
+        lock.readLock().lock();
+        try {
+            memTable.upsert(key, value);
+        } finally {
+            lock.readLock().unlock();
+        }
+        invalidate(key);
+        switchIfFull();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws WriteStallException if flushes or compactions don't catch up within the stall timeout
+     */
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        writeController.beforeWrite();
+        lock.readLock().lock();
+        try {
+            memTable.remove(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+        invalidate(key);
+        switchIfFull();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws UnsupportedOperationException if there is no {@link Config#getMergeOperator()}
+     * @throws IllegalArgumentException if the operator rejects the operand
+     * @throws WriteStallException if flushes or compactions don't catch up within the stall timeout
+     */
+    @Override
+    public void merge(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer operand) throws IOException {
+        final MergeOperator operator = config.getMergeOperator();
+        if (operator == null) {
+            throw new UnsupportedOperationException("No merge operator configured");
+        }
+        operator.checkOperand(operand.asReadOnlyBuffer());
+
+        writeController.beforeWrite();
+        lock.readLock().lock();
+        try {
+            memTable.merge(key, operand, operator);
+        } finally {
+            lock.readLock().unlock();
+        }
+        invalidate(key);
+        switchIfFull();
+    }
+
+    /**
+     * Verifies checksums of all the tables right now without rate limiting.
+     *
+     * @return corrupt ranges found
+     */
+    @NotNull
+    public List<CorruptRange> scrub() throws IOException {
+        try {
+            Scrubber.scrub(retainTables(), integrityMetrics, 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scrubbing", e);
+        }
+        return integrityMetrics.getCorruptRanges();
+    }
+
+    @NotNull
+    public IntegrityMetrics getIntegrityMetrics() {
+        return integrityMetrics;
+    }
+
+    /**
+     * Current write backpressure level, e.g. for load balancers to shed traffic.
+     */
+    @NotNull
+    public StallState getStallState() {
+        return writeController.state();
+    }
+
+    @NotNull
+    public StallMetrics getStallMetrics() {
+        return writeController.metrics();
+    }
+
+    @NotNull
+    public RowCacheMetrics getRowCacheMetrics() {
+        return rowCacheMetrics;
+    }
+
+    @NotNull
+    public BlockCacheMetrics getBlockCacheMetrics() {
+        return blockCacheMetrics;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            if (scrubber != null) {
+                scrubber.close();
+            }
+
+            switchMemTable();
+            flusher.execute(this::flushInBackground);
+            flusher.shutdown();
+            cancel(flushRetry);
+            cancel(compactionRetry);
+            compactor.shutdown();
+            awaitTermination(flusher);
+            awaitTermination(compactor);
+
+            // Retry synchronously whatever background flushes failed to persist
+            flushPending();
+        } finally {
+            writeController.signal();
+            closeTables();
+        }
+    }
+
+    /**
+     * Looks the key up in the tables freshest first until a value or a tombstone is found,
+     * so older tables aren't read, and table filters skip most of the rest.
+     *
+     * @throws MergeException if merge operands of the key can't be applied
+     */
+    @NotNull
+    private ByteBuffer lookup(@NotNull final ByteBuffer key) throws IOException {
+        final List<Cell> found = new ArrayList<>();
+        try (Snapshot snapshot = snapshot()) {
+            for (final Table table : snapshot.tables) {
+                final Cell cell = table.get(key);
+                if (cell == null) {
+                    continue;
+                }
+                found.add(cell);
+                if (!cell.getValue().isOperands()) {
+                    break;
+                }
+            }
+        }
+
+        final Iterator<Cell> resolved = Cells.resolve(found.iterator(), config.getMergeOperator());
+        final Value value;
+        try {
+            if (!resolved.hasNext()) {
+                throw new NoSuchElementException("Not found");
+            }
+            value = resolved.next().getValue();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (value.isTombstone()) {
+            throw new NoSuchElementException("Not found");
+        }
+        return value.getData();
+    }
+
+    /**
+     * Merges cells of the current tables, which are released once the cells are exhausted.
+     * The tables of an iterator abandoned before the end are closed when they become unreachable.
+     */
+    @NotNull
+    private Iterator<Cell> cells(@NotNull final ByteBuffer from) throws IOException {
+        final Snapshot snapshot = snapshot();
+        final List<Iterator<Cell>> iterators = new ArrayList<>(snapshot.tables.size());
+        try {
+            for (final Table table : snapshot.tables) {
+                iterators.add(table.iterator(from));
+            }
+        } catch (IOException | RuntimeException e) {
+            snapshot.close();
+            throw e;
+        }
+
+        final Iterator<Cell> merged = Iterators.mergeSorted(iterators, Cell.COMPARATOR);
+        final Iterator<Cell> releasing = new AbstractIterator<>() {
+            @Override
+            protected Cell computeNext() {
+                if (merged.hasNext()) {
+                    return merged.next();
+                }
+                snapshot.close();
+                return endOfData();
+            }
+        };
+        return Cells.resolve(releasing, config.getMergeOperator());
+    }
+
+    /**
+     * Current tables freshest first.
+     */
+    @NotNull
+    private Snapshot snapshot() {
+        final List<Table> result = new ArrayList<>(flushing.size() + tables.size() + 1);
+        final List<SSTable> retained = new ArrayList<>(tables.size());
+        lock.readLock().lock();
+        try {
+            result.add(memTable);
+            for (final Iterator<MemTable> it = flushing.descendingIterator(); it.hasNext(); ) {
+                result.add(it.next());
+            }
+            for (final SSTable table : tables.descendingMap().values()) {
+                table.retain();
+                retained.add(table);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        result.addAll(retained);
+        return new Snapshot(result, retained);
+    }
+
+    /**
+     * Current {@link SSTable}s oldest first, each of them must be released.
+     */
+    @NotNull
+    private List<SSTable> retainTables() {
+        lock.readLock().lock();
+        try {
+            final List<SSTable> result = List.copyOf(tables.values());
+            for (final SSTable table : result) {
+                table.retain();
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void release(@NotNull final List<SSTable> tables) {
+        for (final SSTable table : tables) {
+            table.release();
+        }
+    }
+
+    private void invalidate(@NotNull final ByteBuffer key) {
+        if (rowCache != null) {
+            rowCache.invalidate(key);
+        }
+    }
+
+    private long pendingFlushBytes() {
+        long result = 0;
+        for (final MemTable table : flushing) {
+            result += table.sizeInBytes();
+        }
+        return result;
+    }
+
+    private void switchIfFull() {
+        if (memTable.sizeInBytes() < config.getFlushThresholdBytes()) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            // Somebody could have switched it already
+            if (memTable.sizeInBytes() < config.getFlushThresholdBytes()) {
+                return;
+            }
+            switchMemTable();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        flusher.execute(this::flushInBackground);
+    }
+
+    /**
+     * Queues the current {@link MemTable} for flush unless it is empty.
+     */
+    private void switchMemTable() {
+        lock.writeLock().lock();
+        try {
+            if (memTable.isEmpty()) {
+                return;
+            }
+            flushing.addLast(memTable);
+            memTable = new MemTable(memTable.generation() + 1);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void flushInBackground() {
+        try {
+            flushPending();
+            flushRetryMillis = MIN_RETRY_MILLIS;
+        } catch (IOException | RuntimeException e) {
+            log.error("Flush failed, retrying in {} ms", flushRetryMillis, e);
+            // Switches can't trigger it if writes are already stopped by the pending flushes
+            retryFlush();
+        }
+    }
+
+    private void retryFlush() {
+        if (!closed && !flushRetryScheduled) {
+            flushRetryScheduled = true;
+            flushRetry = flusher.schedule(
+                    () -> {
+                        flushRetryScheduled = false;
+                        flushInBackground();
+                    },
+                    flushRetryMillis,
+                    TimeUnit.MILLISECONDS);
+            flushRetryMillis = Math.min(flushRetryMillis * 2, MAX_RETRY_MILLIS);
+        }
+    }
+
+    /**
+     * Persists queued {@link MemTable}s oldest first, must be called by a single thread.
+     */
+    private void flushPending() throws IOException {
+        for (MemTable table = flushing.peekFirst(); table != null; table = flushing.peekFirst()) {
+            final SSTable flushed = writeTable(table.generation(), table.iterator(EMPTY), false);
+            lock.writeLock().lock();
+            try {
+                tables.put(flushed.generation(), flushed);
+                flushing.removeFirst();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.debug("Flushed generation {}", flushed.generation());
+            writeController.signal();
+            scheduleCompactionIfNeeded();
+        }
+    }
+
+    private void scheduleCompactionIfNeeded() {
+        if (!closed
+                && tables.size() >= config.getCompactionTableCount()
+                && compactionScheduled.compareAndSet(false, true)) {
+            compactor.execute(this::compactInBackground);
+        }
+    }
+
+    /**
+     * Deletes the tables left over by a compaction interrupted after its result was moved into place.
+     */
+    private void removeSuperseded() throws IOException {
+        long compacted = -1;
+        for (final SSTable table : tables.values()) {
+            if (table.compacted()) {
+                compacted = table.generation();
+            }
+        }
+        if (compacted < 0) {
+            return;
+        }
+
+        final NavigableMap<Long, SSTable> superseded = tables.headMap(compacted, false);
+        if (superseded.isEmpty()) {
+            return;
+        }
+        log.info("Removing {} tables superseded by compacted generation {}", superseded.size(), compacted);
+        for (final SSTable table : List.copyOf(superseded.values())) {
+            table.close();
+            tables.remove(table.generation());
+            integrityMetrics.tableRemoved(table.id());
+            Files.delete(table.file().toPath());
+        }
+        syncDirectory();
+    }
+
+    private void compactInBackground() {
+        boolean failed = false;
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            log.error("Compaction failed, retrying in {} ms", compactionRetryMillis, e);
+            failed = true;
+        } finally {
+            compactionScheduled.set(false);
+        }
+
+        if (failed) {
+            // Flushes can't trigger it if writes are already stopped by the table count
+            retryCompaction();
+        } else {
+            compactionRetryMillis = MIN_RETRY_MILLIS;
+            // More tables could have been flushed meanwhile
+            scheduleCompactionIfNeeded();
+        }
+    }
+
+    private void retryCompaction() {
+        if (!closed && compactionScheduled.compareAndSet(false, true)) {
+            compactionRetry = compactor.schedule(
+                    this::compactInBackground,
+                    compactionRetryMillis,
+                    TimeUnit.MILLISECONDS);
+            compactionRetryMillis = Math.min(compactionRetryMillis * 2, MAX_RETRY_MILLIS);
+        }
+    }
+
+    /**
+     * Merges all the tables into one replacing the freshest of them.
+     * Tombstones are dropped and merge operands are applied, because there is no older data left.
+     * Operands failing to apply are kept with their value, so a bad value doesn't stop compactions.
+     * The result is marked {@link SSTable#compacted()}, so the older tables are deleted on open
+     * if the process dies before they are deleted here.
+     * Every record is verified whatever the {@link ChecksumMode}, and a corrupt one fails the compaction
+     * instead of being rewritten with a valid checksum.
+     */
+    private void compact() throws IOException {
+        final List<SSTable> sources = retainTables();
+        try {
+            compact(sources);
+        } finally {
+            release(sources);
+        }
+    }
+
+    private void compact(@NotNull final List<SSTable> sources) throws IOException {
+        if (sources.size() < 2) {
+            return;
+        }
+
+        final List<Iterator<Cell>> iterators = new ArrayList<>(sources.size());
+        for (final SSTable table : sources) {
+            iterators.add(table.verifiedIterator());
+        }
+        final Iterator<Cell> alive = Iterators.filter(
+                Cells.resolveKeepingUnmerged(
+                        Iterators.mergeSorted(iterators, Cell.COMPARATOR),
+                        config.getMergeOperator()),
+                cell -> !cell.getValue().isTombstone());
+        final long generation = sources.get(sources.size() - 1).generation();
+        final SSTable compacted = writeTable(generation, alive, true);
+
+        lock.writeLock().lock();
+        try {
+            for (final SSTable table : sources) {
+                tables.remove(table.generation());
+            }
+            tables.put(generation, compacted);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        writeController.signal();
+
+        for (final SSTable table : sources) {
+            if (table.generation() != generation) {
+                Files.delete(table.file().toPath());
+            }
+            integrityMetrics.tableRemoved(table.id());
+            // Readers may still iterate over it, so it is closed once the last of them releases it
+            table.release();
+        }
+        syncDirectory();
+
+        log.debug("Compacted {} tables into generation {}", sources.size(), generation);
+    }
+
+    /**
+     * Writes cells to a temporary file and atomically moves it to the table file of the generation,
+     * replacing the existing one if any.
+     */
+    @NotNull
+    private SSTable writeTable(
+            final long generation,
+            @NotNull final Iterator<Cell> cells,
+            final boolean compacted) throws IOException {
+        final File temp = new File(storage, generation + SSTable.TEMP_SUFFIX);
+        final File file = new File(storage, generation + SSTable.SUFFIX);
+        Files.deleteIfExists(temp.toPath());
+        try {
+            SSTable.write(temp, cells, config.getIndexPartitionSize(), compacted);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        return openTable(file, generation);
+    }
+
+    @NotNull
+    private SSTable openTable(
+            @NotNull final File file,
+            final long generation) throws IOException {
+        final SSTable table = SSTable.open(file, generation, verifier, blockCache);
+        integrityMetrics.tableAdded(table.id());
+        return table;
+    }
+
+    /**
+     * Makes renames and deletes in the storage directory durable.
+     */
+    private void syncDirectory() throws IOException {
+        try (FileChannel directory = FileChannel.open(storage.toPath(), StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+    }
+
+    private static void cancel(@Nullable final ScheduledFuture<?> retry) {
+        if (retry != null) {
+            retry.cancel(false);
+        }
+    }
+
+    private static void awaitTermination(@NotNull final ExecutorService executor) throws IOException {
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                throw new IOException("Background task didn't finish in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing", e);
+        }
+    }
+
+    /**
+     * Tables to read with the {@link SSTable}s among them retained until closed.
+     */
+    private static final class Snapshot implements Closeable {
+        private final List<Table> tables;
+        private final List<SSTable> retained;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Snapshot(
+                @NotNull final List<Table> tables,
+                @NotNull final List<SSTable> retained) {
+            this.tables = tables;
+            this.retained = retained;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(retained);
+            }
+        }
+    }
+
+    private void closeTables() {
+        for (final SSTable table : tables.values()) {
+            table.close();
+        }
+        tables.clear();
+    }
+}
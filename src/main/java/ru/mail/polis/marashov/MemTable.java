@@ -0,0 +1,158 @@
+package ru.mail.polis.marashov;
+
+import com.google.common.collect.Iterators;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory {@link Table} accumulating writes until it is flushed to an {@link SSTable}.
+ *
+ * @author Alexander Marashov
+ */
+final class MemTable implements Table {
+    private final NavigableMap<ByteBuffer, Value> map = new ConcurrentSkipListMap<>();
+    private final AtomicLong sizeInBytes = new AtomicLong();
+    private final long generation;
+
+    MemTable(final long generation) {
+        this.generation = generation;
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        return Iterators.transform(
+                map.tailMap(from).entrySet().iterator(),
+                e -> new Cell(e.getKey(), e.getValue(), generation));
+    }
+
+    @Nullable
+    @Override
+    public Cell get(@NotNull final ByteBuffer key) {
+        final Value value = map.get(key);
+        return value == null ? null : new Cell(key, value, generation);
+    }
+
+    void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        put(copyOf(key), Value.of(copyOf(value)));
+    }
+
+    void remove(@NotNull final ByteBuffer key) {
+        put(copyOf(key), Value.tombstone());
+    }
+
+    /**
+     * Applies the operand to the value in this table right away,
+     * or appends it to the pending operands if the value is in older tables.
+     */
+    void merge(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer operand,
+            @NotNull final MergeOperator operator) {
+        final ByteBuffer keyCopy = copyOf(key);
+        final ByteBuffer operandCopy = copyOf(operand);
+        while (true) {
+            final Value previous = map.get(keyCopy);
+            final Value value = merge(previous, operandCopy, operator);
+            // Lost a race with another writer of the key otherwise
+            if (previous == null
+                    ? map.putIfAbsent(keyCopy, value) == null
+                    : map.replace(keyCopy, previous, value)) {
+                account(keyCopy, previous, value);
+                return;
+            }
+        }
+    }
+
+    private void put(
+            @NotNull final ByteBuffer key,
+            @NotNull final Value value) {
+        account(key, map.put(key, value), value);
+    }
+
+    private void account(
+            @NotNull final ByteBuffer key,
+            @Nullable final Value previous,
+            @NotNull final Value value) {
+        if (previous == null) {
+            sizeInBytes.addAndGet(key.remaining() + value.sizeInBytes());
+        } else {
+            sizeInBytes.addAndGet(value.sizeInBytes() - previous.sizeInBytes());
+        }
+    }
+
+    boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public long generation() {
+        return generation;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return sizeInBytes.get();
+    }
+
+    @NotNull
+    private static Value merge(
+            @Nullable final Value previous,
+            @NotNull final ByteBuffer operand,
+            @NotNull final MergeOperator operator) {
+        if (previous == null) {
+            return Value.operands(List.of(operand));
+        }
+        if (previous.isTombstone()) {
+            return Value.of(operator.merge(null, operand.asReadOnlyBuffer()));
+        }
+        if (previous.isUnmerged()) {
+            return Value.unmerged(previous.getData(), append(previous.getOperands(), operand, operator));
+        }
+        if (!previous.isOperands()) {
+            try {
+                return Value.of(operator.merge(previous.getData(), operand.asReadOnlyBuffer()));
+            } catch (IllegalArgumentException e) {
+                // Fails reads just like the same value in a table would
+                return Value.unmerged(previous.getData(), List.of(operand));
+            }
+        }
+        return Value.operands(append(previous.getOperands(), operand, operator));
+    }
+
+    @NotNull
+    private static List<ByteBuffer> append(
+            @NotNull final List<ByteBuffer> previous,
+            @NotNull final ByteBuffer operand,
+            @NotNull final MergeOperator operator) {
+        final List<ByteBuffer> operands = new ArrayList<>(previous);
+        final int last = operands.size() - 1;
+        final ByteBuffer combined = operator.combine(
+                operands.get(last).asReadOnlyBuffer(),
+                operand.asReadOnlyBuffer());
+        if (combined == null) {
+            operands.add(operand);
+        } else {
+            operands.set(last, combined);
+        }
+        return operands;
+    }
+
+    @NotNull
+    private static ByteBuffer copyOf(@NotNull final ByteBuffer buffer) {
+        final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        copy.flip();
+        return copy;
+    }
+}
@@ -0,0 +1,21 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Thrown when merge operands of a key can't be applied to its value.
+ * The key stays unreadable until it is overwritten or removed.
+ *
+ * @author Alexander Marashov
+ */
+public class MergeException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    MergeException(
+            @NotNull final String message,
+            @NotNull final Throwable cause) {
+        super(message, cause);
+    }
+}
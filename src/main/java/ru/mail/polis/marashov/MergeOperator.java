@@ -0,0 +1,49 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Applies operands recorded by {@link LsmDAO#merge} to values.
+ * Operands are applied oldest first when the value is read or compacted,
+ * so the operator must be deterministic and must not modify its arguments.
+ *
+ * @author Alexander Marashov
+ * @see MergeOperators
+ */
+public interface MergeOperator {
+    /**
+     * Applies the operand to the value.
+     *
+     * @param value current value or {@code null} if it is absent or removed
+     * @throws IllegalArgumentException if the value is malformed, then reads of the key fail
+     *                                  with {@link MergeException} until it is overwritten
+     */
+    @NotNull
+    ByteBuffer merge(
+            @Nullable ByteBuffer value,
+            @NotNull ByteBuffer operand);
+
+    /**
+     * Combines two consecutive operands into one with the same effect to keep pending operands short.
+     *
+     * @return combined operand or {@code null} if they can't be combined
+     */
+    @Nullable
+    default ByteBuffer combine(
+            @NotNull final ByteBuffer older,
+            @NotNull final ByteBuffer newer) {
+        return null;
+    }
+
+    /**
+     * Rejects a malformed operand before {@link LsmDAO#merge} records it.
+     *
+     * @throws IllegalArgumentException if the operand can't be applied to any value
+     */
+    default void checkOperand(@NotNull final ByteBuffer operand) {
+        // Any operand is fine
+    }
+}
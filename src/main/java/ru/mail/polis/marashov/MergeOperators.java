@@ -0,0 +1,102 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Common {@link MergeOperator}s.
+ *
+ * @author Alexander Marashov
+ */
+public final class MergeOperators {
+    private static final MergeOperator COUNTER = new MergeOperator() {
+        @NotNull
+        @Override
+        public ByteBuffer merge(
+                @Nullable final ByteBuffer value,
+                @NotNull final ByteBuffer operand) {
+            if (value == null) {
+                return sum(0L, operand);
+            }
+            if (value.remaining() != Long.BYTES) {
+                throw new IllegalArgumentException("Counter value is " + value.remaining() + " bytes long");
+            }
+            return sum(value.getLong(value.position()), operand);
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer combine(
+                @NotNull final ByteBuffer older,
+                @NotNull final ByteBuffer newer) {
+            checkOperand(older);
+            return sum(older.getLong(older.position()), newer);
+        }
+
+        @Override
+        public void checkOperand(@NotNull final ByteBuffer operand) {
+            if (operand.remaining() != Long.BYTES) {
+                throw new IllegalArgumentException("Counter operand is " + operand.remaining() + " bytes long");
+            }
+        }
+
+        @NotNull
+        private ByteBuffer sum(
+                final long base,
+                @NotNull final ByteBuffer operand) {
+            checkOperand(operand);
+            return ByteBuffer.allocate(Long.BYTES).putLong(0, base + operand.getLong(operand.position()));
+        }
+    };
+
+    private static final MergeOperator APPEND = new MergeOperator() {
+        @NotNull
+        @Override
+        public ByteBuffer merge(
+                @Nullable final ByteBuffer value,
+                @NotNull final ByteBuffer operand) {
+            return value == null ? operand : concat(value, operand);
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer combine(
+                @NotNull final ByteBuffer older,
+                @NotNull final ByteBuffer newer) {
+            return concat(older, newer);
+        }
+
+        @NotNull
+        private ByteBuffer concat(
+                @NotNull final ByteBuffer first,
+                @NotNull final ByteBuffer second) {
+            final ByteBuffer result = ByteBuffer.allocate(first.remaining() + second.remaining());
+            result.put(first.duplicate());
+            result.put(second.duplicate());
+            return result.flip();
+        }
+    };
+
+    private MergeOperators() {
+        // Not instantiable
+    }
+
+    /**
+     * Adds 8-byte big-endian signed operands to the 8-byte value, an absent value counts as zero.
+     * Operands of other sizes are rejected, and so are values of other sizes once merged.
+     */
+    @NotNull
+    public static MergeOperator counter() {
+        return COUNTER;
+    }
+
+    /**
+     * Appends operand bytes to the value, an absent value counts as empty.
+     */
+    @NotNull
+    public static MergeOperator append() {
+        return APPEND;
+    }
+}
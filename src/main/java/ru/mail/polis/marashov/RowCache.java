@@ -0,0 +1,197 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of point lookup results bounded by the total size of keys and values.
+ *
+ * <p>Follows W-TinyLFU: new rows enter a small LRU window, and rows leaving the window
+ * are admitted to the main LRU segment only if they are requested more often than
+ * the rows they would evict, as estimated by a {@link FrequencySketch}.
+ * So a scan of cold keys can't wash the hot ones out.
+ *
+ * <p>Keys are spread over independently locked segments with their own capacity share
+ * and sketch, so concurrent readers of different keys don't contend on a single lock.
+ *
+ * <p>Writers {@link #invalidate} keys after updating the {@link MemTable}. Readers take
+ * a {@link #stamp} before reading the tables and {@link #put} the result only if no key
+ * of the same stripe was invalidated meanwhile, so a stale value is never cached.
+ *
+ * @author Alexander Marashov
+ */
+final class RowCache {
+    // Approximate heap footprint of map entries and buffer headers
+    private static final int ENTRY_OVERHEAD = 128;
+    private static final int WINDOW_PERCENT = 1;
+    private static final int STRIPES = 64;
+    private static final int MAX_SEGMENTS = 16;
+    // Small caches aren't split, so the window holds a few rows at least
+    private static final long MIN_SEGMENT_BYTES = 256 * 1024;
+    private static final long SEGMENT_SEED = 0x7FB5D329728EA185L;
+    // Keeps collisions rare in small caches
+    private static final int MIN_SKETCH_WIDTH = 1024;
+    private static final int MAX_SKETCH_WIDTH = 1 << 24;
+
+    private final Segment[] segments;
+
+    RowCache(
+            final long capacityBytes,
+            @NotNull final RowCacheMetrics metrics) {
+        final int count = Integer.highestOneBit(
+                (int) Math.max(1, Math.min(capacityBytes / MIN_SEGMENT_BYTES, MAX_SEGMENTS)));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(capacityBytes / count, metrics);
+        }
+    }
+
+    /**
+     * Returns the cached value counting the access.
+     */
+    @Nullable
+    ByteBuffer get(@NotNull final ByteBuffer key) {
+        return segment(key).get(key);
+    }
+
+    /**
+     * Version of the key to pass to {@link #put} after reading the value.
+     */
+    long stamp(@NotNull final ByteBuffer key) {
+        return segment(key).stamp(key);
+    }
+
+    /**
+     * Caches the value read after taking the stamp unless the key could be updated since then.
+     */
+    void put(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value,
+            final long stamp) {
+        segment(key).put(key, value, stamp);
+    }
+
+    void invalidate(@NotNull final ByteBuffer key) {
+        segment(key).invalidate(key);
+    }
+
+    @NotNull
+    private Segment segment(@NotNull final ByteBuffer key) {
+        // Independent of the stripe and sketch bits of the hash
+        return segments[(int) ((key.hashCode() * SEGMENT_SEED) >>> Integer.SIZE) & (segments.length - 1)];
+    }
+
+    private static final class Segment {
+        private final long windowCapacity;
+        private final long mainCapacity;
+        private final RowCacheMetrics metrics;
+        private final FrequencySketch sketch;
+        private final Map<ByteBuffer, ByteBuffer> window = new LinkedHashMap<>(16, 0.75F, true);
+        private final Map<ByteBuffer, ByteBuffer> main = new LinkedHashMap<>(16, 0.75F, true);
+        private final long[] stamps = new long[STRIPES];
+        private long windowSize;
+        private long mainSize;
+
+        Segment(
+                final long capacityBytes,
+                @NotNull final RowCacheMetrics metrics) {
+            this.windowCapacity = capacityBytes * WINDOW_PERCENT / 100;
+            this.mainCapacity = capacityBytes - windowCapacity;
+            this.metrics = metrics;
+            this.sketch = new FrequencySketch(
+                    (int) Math.max(MIN_SKETCH_WIDTH, Math.min(capacityBytes / ENTRY_OVERHEAD, MAX_SKETCH_WIDTH)));
+        }
+
+        @Nullable
+        synchronized ByteBuffer get(@NotNull final ByteBuffer key) {
+            sketch.increment(key);
+            ByteBuffer value = window.get(key);
+            if (value == null) {
+                value = main.get(key);
+            }
+
+            if (value == null) {
+                metrics.miss();
+                return null;
+            }
+            metrics.hit();
+            return value.asReadOnlyBuffer();
+        }
+
+        synchronized long stamp(@NotNull final ByteBuffer key) {
+            return stamps[stripe(key)];
+        }
+
+        synchronized void put(
+                @NotNull final ByteBuffer key,
+                @NotNull final ByteBuffer value,
+                final long stamp) {
+            if (stamps[stripe(key)] != stamp || window.containsKey(key) || main.containsKey(key)) {
+                return;
+            }
+
+            final ByteBuffer copy = ByteBuffer.allocate(key.remaining()).put(key.duplicate()).flip();
+            window.put(copy, value.asReadOnlyBuffer());
+            windowSize += weight(copy, value);
+            while (windowSize > windowCapacity) {
+                final Iterator<Map.Entry<ByteBuffer, ByteBuffer>> eldest = window.entrySet().iterator();
+                final Map.Entry<ByteBuffer, ByteBuffer> candidate = eldest.next();
+                eldest.remove();
+                windowSize -= weight(candidate.getKey(), candidate.getValue());
+                admit(candidate.getKey(), candidate.getValue());
+            }
+        }
+
+        synchronized void invalidate(@NotNull final ByteBuffer key) {
+            stamps[stripe(key)]++;
+            final ByteBuffer windowed = window.remove(key);
+            if (windowed != null) {
+                windowSize -= weight(key, windowed);
+            }
+            final ByteBuffer cached = main.remove(key);
+            if (cached != null) {
+                mainSize -= weight(key, cached);
+            }
+        }
+
+        private void admit(
+                @NotNull final ByteBuffer key,
+                @NotNull final ByteBuffer value) {
+            final long weight = weight(key, value);
+            if (weight > mainCapacity) {
+                metrics.rejected();
+                return;
+            }
+
+            final Iterator<Map.Entry<ByteBuffer, ByteBuffer>> victims = main.entrySet().iterator();
+            if (mainSize + weight > mainCapacity
+                    && sketch.frequency(key) <= sketch.frequency(main.keySet().iterator().next())) {
+                metrics.rejected();
+                return;
+            }
+            while (mainSize + weight > mainCapacity) {
+                final Map.Entry<ByteBuffer, ByteBuffer> victim = victims.next();
+                victims.remove();
+                mainSize -= weight(victim.getKey(), victim.getValue());
+                metrics.evicted();
+            }
+            main.put(key, value);
+            mainSize += weight;
+        }
+
+        private static long weight(
+                @NotNull final ByteBuffer key,
+                @NotNull final ByteBuffer value) {
+            return (long) key.remaining() + value.remaining() + ENTRY_OVERHEAD;
+        }
+
+        private static int stripe(@NotNull final ByteBuffer key) {
+            return Math.floorMod(key.hashCode(), STRIPES);
+        }
+    }
+}
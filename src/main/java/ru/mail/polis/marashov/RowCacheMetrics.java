@@ -0,0 +1,53 @@
+package ru.mail.polis.marashov;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Row cache counters of a {@link LsmDAO}.
+ *
+ * @author Alexander Marashov
+ */
+public final class RowCacheMetrics {
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Number of rows evicted in favor of more popular ones.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Number of rows not admitted because they are less popular than the eviction candidates.
+     */
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    void hit() {
+        hits.incrementAndGet();
+    }
+
+    void miss() {
+        misses.incrementAndGet();
+    }
+
+    void evicted() {
+        evictions.incrementAndGet();
+    }
+
+    void rejected() {
+        rejections.incrementAndGet();
+    }
+}
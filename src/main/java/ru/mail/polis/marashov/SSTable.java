@@ -0,0 +1,731 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable sorted {@link Table} persisted to a file.
+ *
+ * <p>Records are grouped into partitions followed by their index and Bloom filter blocks.
+ * Only the top-level index of partitions is kept in memory, while the blocks are loaded
+ * through the {@link BlockCache} when the partition is accessed.
+ *
+ * <p>File layout:
+ * <pre>
+ * partition := record{1..partitionSize} index filter
+ * record    := keySize:int key valueSize:int value crc32c:int
+ * index     := offset:long{count + 1} crc32c:int
+ * filter    := bits:byte{filterSize} crc32c:int
+ * top       := (keySize:int firstKey indexOffset:long count:int filterSize:int){partitions}
+ * trailer   := partitions:int topOffset:long topCrc32c:int flags:int magic:int
+ * </pre>
+ * The index holds offsets of the partition records followed by the end of the last one.
+ * Tombstones are stored with {@code valueSize == -1} and no value bytes.
+ * {@link MergeOperator} operands are stored with {@code valueSize == -2}
+ * followed by {@code count:int (operandSize:int operand){count}} instead of the value.
+ * Unmerged values are stored with {@code valueSize == -3} followed by {@code dataSize:int data}
+ * and the operands the same way.
+ * Every record and block checksum covers all the preceding bytes of it.
+ * The {@code COMPACTED} flag marks a full compaction result which makes all the older
+ * generations obsolete, so it takes effect atomically with the table file rename.
+ *
+ * @author Alexander Marashov
+ */
+final class SSTable implements Table, Closeable {
+    static final String SUFFIX = ".db";
+    static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int TOMBSTONE = -1;
+    private static final int OPERANDS = -2;
+    private static final int UNMERGED = -3;
+    private static final int MAGIC = 0x4C534D33;
+    private static final int COMPACTED = 1;
+    private static final int TRAILER_SIZE =
+            Integer.BYTES + Long.BYTES + Checksums.SIZE + Integer.BYTES + Integer.BYTES;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final AtomicLong IDS = new AtomicLong();
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final File file;
+    private final FileChannel channel;
+    private final long generation;
+    private final long size;
+    private final boolean compacted;
+    // Unlike the generation, distinguishes the table replacing this one in the block cache
+    private final long id = IDS.incrementAndGet();
+    private final ByteBuffer[] firstKeys;
+    private final long[] indexOffsets;
+    private final int[] counts;
+    private final int[] filterSizes;
+    private final ChecksumVerifier verifier;
+    private final BlockCache blockCache;
+    private final Cleaner.Cleanable cleanable;
+    // The reference of the owner plus one per reader
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private SSTable(
+            @NotNull final File file,
+            @NotNull final FileChannel channel,
+            final long generation,
+            final long size,
+            final boolean compacted,
+            final int partitions,
+            @NotNull final ChecksumVerifier verifier,
+            @NotNull final BlockCache blockCache) {
+        this.file = file;
+        this.channel = channel;
+        this.generation = generation;
+        this.size = size;
+        this.compacted = compacted;
+        this.firstKeys = new ByteBuffer[partitions];
+        this.indexOffsets = new long[partitions];
+        this.counts = new int[partitions];
+        this.filterSizes = new int[partitions];
+        this.verifier = verifier;
+        this.blockCache = blockCache;
+        // Safety net for tables of the iterators abandoned before the end, they are never released
+        this.cleanable = CLEANER.register(this, new ChannelCloser(channel));
+    }
+
+    @NotNull
+    static SSTable open(
+            @NotNull final File file,
+            final long generation,
+            @NotNull final ChecksumVerifier verifier,
+            @NotNull final BlockCache blockCache) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            final long size = channel.size();
+            if (size < TRAILER_SIZE) {
+                throw new CorruptionException("Truncated table " + file);
+            }
+
+            final ByteBuffer trailer = read(channel, size - TRAILER_SIZE, TRAILER_SIZE);
+            final int partitions = trailer.getInt();
+            final long topOffset = trailer.getLong();
+            final int topChecksum = trailer.getInt();
+            final int flags = trailer.getInt();
+            if (trailer.getInt() != MAGIC) {
+                throw new CorruptionException("Unknown format of " + file);
+            }
+            if (partitions < 0
+                    || topOffset < 0
+                    || topOffset > size - TRAILER_SIZE
+                    || (flags & ~COMPACTED) != 0) {
+                throw new CorruptionException("Bad trailer of " + file);
+            }
+
+            final ByteBuffer top = read(channel, topOffset, (int) (size - TRAILER_SIZE - topOffset));
+            if (Checksums.crc32c(top) != topChecksum) {
+                throw new CorruptionException("Index checksum mismatch in " + file);
+            }
+
+            final SSTable table = new SSTable(
+                    file,
+                    channel,
+                    generation,
+                    size,
+                    (flags & COMPACTED) != 0,
+                    partitions,
+                    verifier,
+                    blockCache);
+            try {
+                for (int i = 0; i < partitions; i++) {
+                    table.firstKeys[i] = slice(top, top.getInt());
+                    table.indexOffsets[i] = top.getLong();
+                    table.counts[i] = top.getInt();
+                    table.filterSizes[i] = top.getInt();
+                    if (table.counts[i] <= 0 || table.filterSizes[i] <= 0) {
+                        throw new CorruptionException("Bad partition " + i + " in " + file);
+                    }
+                }
+            } catch (BufferUnderflowException e) {
+                throw new CorruptionException("Truncated index of " + file);
+            }
+            return table;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes cells to a new file which must not exist.
+     *
+     * @param partitionSize number of records per index and filter partition
+     * @param compacted whether the cells are a full compaction of all the older generations
+     */
+    static void write(
+            @NotNull final File file,
+            @NotNull final Iterator<Cell> cells,
+            final int partitionSize,
+            final boolean compacted) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            final ByteArrayOutputStream topBytes = new ByteArrayOutputStream();
+            final DataOutputStream top = new DataOutputStream(topBytes);
+            final long[] offsets = new long[partitionSize + 1];
+            final long[] hashes = new long[partitionSize];
+            ByteBuffer firstKey = null;
+            int partitions = 0;
+            int count = 0;
+            long offset = 0;
+            while (cells.hasNext()) {
+                final Cell cell = cells.next();
+                if (count == 0) {
+                    firstKey = cell.getKey();
+                }
+                offsets[count] = offset;
+                hashes[count] = BloomFilter.hash(cell.getKey());
+                count++;
+
+                final ByteBuffer record = serialize(cell);
+                offset += record.remaining();
+                writeFully(channel, record);
+
+                if (count == partitionSize) {
+                    offset = writePartition(channel, offset, offsets, hashes, count, firstKey, top);
+                    partitions++;
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                offset = writePartition(channel, offset, offsets, hashes, count, firstKey, top);
+                partitions++;
+            }
+
+            top.flush();
+            final ByteBuffer topBlock = ByteBuffer.wrap(topBytes.toByteArray());
+            final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            trailer.putInt(partitions);
+            trailer.putLong(offset);
+            trailer.putInt(Checksums.crc32c(topBlock));
+            trailer.putInt(compacted ? COMPACTED : 0);
+            trailer.putInt(MAGIC);
+            trailer.flip();
+
+            writeFully(channel, topBlock);
+            writeFully(channel, trailer);
+            channel.force(false);
+        }
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) throws IOException {
+        return iterator(from, false);
+    }
+
+    /**
+     * Iterates over all the cells verifying checksums of all the records regardless of {@link ChecksumMode},
+     * so that compaction doesn't rewrite corrupt records with valid checksums.
+     */
+    @NotNull
+    Iterator<Cell> verifiedIterator() throws IOException {
+        return iterator(EMPTY, true);
+    }
+
+    @NotNull
+    private Iterator<Cell> iterator(
+            @NotNull final ByteBuffer from,
+            final boolean verify) throws IOException {
+        final int floor = floorPartition(from);
+        final int startPartition = Math.max(floor, 0);
+        final int start = floor < 0 ? 0 : lowerBound(index(floor), counts[floor], from);
+        return new Iterator<>() {
+            private int partition = startPartition;
+            private int next = start;
+            @Nullable
+            private ByteBuffer index;
+
+            @Override
+            public boolean hasNext() {
+                return partition < counts.length
+                        && (next < counts[partition] || partition + 1 < counts.length);
+            }
+
+            @Override
+            public Cell next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No more cells in " + file);
+                }
+
+                try {
+                    if (next == counts[partition]) {
+                        partition++;
+                        next = 0;
+                        index = null;
+                    }
+                    if (index == null) {
+                        index = index(partition);
+                    }
+                    final int current = next++;
+                    return cell(record(index, current), index, current, verify);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Looks the key up reading no partition blocks unless it may be in the partition
+     * and no records unless the partition filter says the key may be there.
+     */
+    @Nullable
+    @Override
+    public Cell get(@NotNull final ByteBuffer key) throws IOException {
+        final int partition = floorPartition(key);
+        if (partition < 0 || !BloomFilter.mightContain(filter(partition), BloomFilter.hash(key))) {
+            return null;
+        }
+
+        final ByteBuffer index = index(partition);
+        final int i = lowerBound(index, counts[partition], key);
+        if (i == counts[partition]) {
+            return null;
+        }
+        final ByteBuffer record = record(index, i);
+        if (!key(record).equals(key)) {
+            return null;
+        }
+        return cell(record, index, i, false);
+    }
+
+    /**
+     * Verifies checksums of all the records and blocks regardless of {@link ChecksumMode}.
+     * Blocks are read bypassing the {@link BlockCache} not to wash it out.
+     *
+     * @return ranges of consecutive corrupt records or blocks
+     * @throws java.util.concurrent.CancellationException if the throttle is stopped
+     */
+    @NotNull
+    List<CorruptRange> scrub(@NotNull final Throttle throttle) throws IOException, InterruptedException {
+        final List<CorruptRange> corrupt = new ArrayList<>();
+        for (int partition = 0; partition < counts.length; partition++) {
+            throttle.acquire(indexSize(partition));
+            final ByteBuffer index;
+            try {
+                index = readBlock(indexOffsets[partition], indexSize(partition));
+            } catch (CorruptionException e) {
+                corrupt.add(new CorruptRange(
+                        file.getName(),
+                        indexOffsets[partition],
+                        indexOffsets[partition] + indexSize(partition)));
+                continue;
+            }
+
+            long corruptFrom = -1;
+            long corruptTo = -1;
+            for (int i = 0; i < counts[partition]; i++) {
+                final ByteBuffer record = record(index, i);
+                throttle.acquire(record.remaining());
+                if (!Checksums.matches(record)) {
+                    if (corruptFrom < 0) {
+                        corruptFrom = start(index, i);
+                    }
+                    corruptTo = start(index, i + 1);
+                } else if (corruptFrom >= 0) {
+                    corrupt.add(new CorruptRange(file.getName(), corruptFrom, corruptTo));
+                    corruptFrom = -1;
+                }
+            }
+            if (corruptFrom >= 0) {
+                corrupt.add(new CorruptRange(file.getName(), corruptFrom, corruptTo));
+            }
+
+            throttle.acquire(filterSize(partition));
+            try {
+                readBlock(filterOffset(partition), filterSize(partition));
+            } catch (CorruptionException e) {
+                corrupt.add(new CorruptRange(
+                        file.getName(),
+                        filterOffset(partition),
+                        filterOffset(partition) + filterSize(partition)));
+            }
+        }
+        return corrupt;
+    }
+
+    @NotNull
+    File file() {
+        return file;
+    }
+
+    /**
+     * Unlike the generation, distinguishes the table from the one replacing it.
+     */
+    long id() {
+        return id;
+    }
+
+    @NotNull
+    String name() {
+        return file.getName();
+    }
+
+    @Override
+    public long generation() {
+        return generation;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return size;
+    }
+
+    /**
+     * Whether the table is a full compaction result superseding all the older generations.
+     */
+    boolean compacted() {
+        return compacted;
+    }
+
+    /**
+     * Keeps the file open until the matching {@link #release()}.
+     *
+     * @throws IllegalStateException if the table is already released by all the users
+     */
+    void retain() {
+        for (int count = references.get(); ; count = references.get()) {
+            if (count <= 0) {
+                throw new IllegalStateException("Table " + file + " is released");
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Closes the file once the owner and all the readers have released the table.
+     */
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            close();
+        }
+    }
+
+    /**
+     * Closes the file right away regardless of the readers.
+     */
+    @Override
+    public void close() {
+        blockCache.invalidate(id);
+        cleanable.clean();
+    }
+
+    /**
+     * Finds the last partition starting not after the key.
+     *
+     * @return the partition or {@code -1} if the key precedes all of them
+     */
+    private int floorPartition(@NotNull final ByteBuffer key) {
+        int low = 0;
+        int high = firstKeys.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (firstKeys[mid].compareTo(key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    private int lowerBound(
+            @NotNull final ByteBuffer index,
+            final int count,
+            @NotNull final ByteBuffer key) throws IOException {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (key(record(index, mid)).compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @NotNull
+    private ByteBuffer index(final int partition) throws IOException {
+        return blockCache.get(
+                id,
+                indexOffsets[partition],
+                () -> readBlock(indexOffsets[partition], indexSize(partition)));
+    }
+
+    @NotNull
+    private ByteBuffer filter(final int partition) throws IOException {
+        return blockCache.get(
+                id,
+                filterOffset(partition),
+                () -> readBlock(filterOffset(partition), filterSize(partition)));
+    }
+
+    private int indexSize(final int partition) {
+        return (counts[partition] + 1) * Long.BYTES + Checksums.SIZE;
+    }
+
+    private long filterOffset(final int partition) {
+        return indexOffsets[partition] + indexSize(partition);
+    }
+
+    private int filterSize(final int partition) {
+        return filterSizes[partition] + Checksums.SIZE;
+    }
+
+    /**
+     * Reads the block verifying its checksum.
+     *
+     * @return the block without checksum
+     */
+    @NotNull
+    private ByteBuffer readBlock(
+            final long offset,
+            final int size) throws IOException {
+        final ByteBuffer block = read(channel, offset, size);
+        if (!Checksums.matches(block)) {
+            throw new CorruptionException(
+                    "Block checksum mismatch in " + new CorruptRange(file.getName(), offset, offset + size));
+        }
+        block.limit(block.limit() - Checksums.SIZE);
+        return block.slice();
+    }
+
+    private static long start(
+            @NotNull final ByteBuffer index,
+            final int i) {
+        return index.getLong(index.position() + i * Long.BYTES);
+    }
+
+    @NotNull
+    private ByteBuffer record(
+            @NotNull final ByteBuffer index,
+            final int i) throws IOException {
+        final long start = start(index, i);
+        final long end = start(index, i + 1);
+        if (end <= start || end > size) {
+            throw new CorruptionException("Bad record bounds " + start + ".." + end + " in " + file);
+        }
+        return read(channel, start, (int) (end - start));
+    }
+
+    /**
+     * Reads the key for search, checksums aren't verified here.
+     */
+    @NotNull
+    private static ByteBuffer key(@NotNull final ByteBuffer record) throws CorruptionException {
+        final ByteBuffer duplicate = record.duplicate();
+        return slice(duplicate, duplicate.getInt());
+    }
+
+    @NotNull
+    private Cell cell(
+            @NotNull final ByteBuffer record,
+            @NotNull final ByteBuffer index,
+            final int i,
+            final boolean verify) throws IOException {
+        if ((verify || verifier.shouldVerify()) && !Checksums.matches(record)) {
+            verifier.failed();
+            throw new CorruptionException(
+                    "Checksum mismatch in " + new CorruptRange(file.getName(), start(index, i), start(index, i + 1)));
+        }
+
+        final int keySize = record.getInt();
+        final ByteBuffer key = slice(record, keySize);
+        final int valueSize = record.getInt();
+        if (valueSize == TOMBSTONE) {
+            return new Cell(key, Value.tombstone(), generation);
+        }
+        if (valueSize == OPERANDS) {
+            return new Cell(key, Value.operands(operands(record)), generation);
+        }
+        if (valueSize == UNMERGED) {
+            final ByteBuffer data = slice(record, record.getInt());
+            return new Cell(key, Value.unmerged(data, operands(record)), generation);
+        }
+        return new Cell(key, Value.of(slice(record, valueSize)), generation);
+    }
+
+    @NotNull
+    private static List<ByteBuffer> operands(@NotNull final ByteBuffer record) throws CorruptionException {
+        final int count = record.getInt();
+        if (count <= 0) {
+            throw new CorruptionException("Bad operand count " + count);
+        }
+        final List<ByteBuffer> operands = new ArrayList<>(count);
+        for (int j = 0; j < count; j++) {
+            operands.add(slice(record, record.getInt()));
+        }
+        return operands;
+    }
+
+    /**
+     * Writes the index and filter blocks of the partition records and adds it to the top-level index.
+     *
+     * @return offset after the blocks
+     */
+    private static long writePartition(
+            @NotNull final FileChannel channel,
+            final long offset,
+            @NotNull final long[] offsets,
+            @NotNull final long[] hashes,
+            final int count,
+            @NotNull final ByteBuffer firstKey,
+            @NotNull final DataOutputStream top) throws IOException {
+        offsets[count] = offset;
+        final ByteBuffer index = ByteBuffer.allocate((count + 1) * Long.BYTES);
+        index.asLongBuffer().put(offsets, 0, count + 1);
+        final ByteBuffer filter = BloomFilter.build(hashes, count);
+
+        final byte[] key = new byte[firstKey.remaining()];
+        firstKey.duplicate().get(key);
+        top.writeInt(key.length);
+        top.write(key);
+        top.writeLong(offset);
+        top.writeInt(count);
+        top.writeInt(filter.remaining());
+
+        final ByteBuffer indexBlock = withChecksum(index);
+        final ByteBuffer filterBlock = withChecksum(filter);
+        final long end = offset + indexBlock.remaining() + filterBlock.remaining();
+        writeFully(channel, indexBlock);
+        writeFully(channel, filterBlock);
+        return end;
+    }
+
+    @NotNull
+    private static ByteBuffer withChecksum(@NotNull final ByteBuffer block) {
+        final ByteBuffer result = ByteBuffer.allocate(block.remaining() + Checksums.SIZE);
+        result.put(block.duplicate());
+        result.putInt(Checksums.crc32c(block));
+        return result.flip();
+    }
+
+    @NotNull
+    private static ByteBuffer serialize(@NotNull final Cell cell) {
+        final ByteBuffer key = cell.getKey();
+        final Value value = cell.getValue();
+        int valueSize = 0;
+        if (value.isUnmerged()) {
+            valueSize += Integer.BYTES + value.getData().remaining();
+        }
+        if (value.isOperands() || value.isUnmerged()) {
+            valueSize += Integer.BYTES;
+            for (final ByteBuffer operand : value.getOperands()) {
+                valueSize += Integer.BYTES + operand.remaining();
+            }
+        } else if (!value.isTombstone()) {
+            valueSize = value.getData().remaining();
+        }
+
+        final ByteBuffer record = ByteBuffer.allocate(
+                Integer.BYTES + key.remaining() + Integer.BYTES + valueSize + Checksums.SIZE);
+        record.putInt(key.remaining());
+        record.put(key);
+        if (value.isTombstone()) {
+            record.putInt(TOMBSTONE);
+        } else if (value.isOperands() || value.isUnmerged()) {
+            if (value.isUnmerged()) {
+                record.putInt(UNMERGED);
+                record.putInt(value.getData().remaining());
+                record.put(value.getData());
+            } else {
+                record.putInt(OPERANDS);
+            }
+            record.putInt(value.getOperands().size());
+            for (final ByteBuffer operand : value.getOperands()) {
+                record.putInt(operand.remaining());
+                record.put(operand.duplicate());
+            }
+        } else {
+            record.putInt(valueSize);
+            record.put(value.getData());
+        }
+        final ByteBuffer body = record.duplicate();
+        body.flip();
+        record.putInt(Checksums.crc32c(body));
+        record.flip();
+        return record;
+    }
+
+    @NotNull
+    private static ByteBuffer slice(
+            @NotNull final ByteBuffer buffer,
+            final int size) throws CorruptionException {
+        if (size < 0 || size > buffer.remaining()) {
+            throw new CorruptionException("Bad field size " + size);
+        }
+
+        final ByteBuffer result = buffer.duplicate();
+        result.limit(result.position() + size);
+        buffer.position(buffer.position() + size);
+        return result.slice();
+    }
+
+    @NotNull
+    private static ByteBuffer read(
+            @NotNull final FileChannel channel,
+            final long position,
+            final int size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of table at " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeFully(
+            @NotNull final FileChannel channel,
+            @NotNull final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static final class ChannelCloser implements Runnable {
+        private final FileChannel channel;
+
+        ChannelCloser(@NotNull final FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
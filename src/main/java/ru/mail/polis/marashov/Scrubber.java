@@ -0,0 +1,116 @@
+package ru.mail.polis.marashov;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Low priority background task periodically verifying checksums of all the {@link SSTable}s.
+ *
+ * <p>It is stopped by a flag checked between blocks and never interrupted, because an interrupt
+ * during {@link java.nio.channels.FileChannel#read} closes the channel shared with the other readers.
+ *
+ * @author Alexander Marashov
+ */
+final class Scrubber implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(Scrubber.class);
+
+    private final Supplier<Collection<SSTable>> tables;
+    private final IntegrityMetrics metrics;
+    private final long bytesPerSecond;
+    private final ScheduledExecutorService executor;
+    private final ScheduledFuture<?> task;
+    private volatile boolean stopped;
+
+    Scrubber(
+            @NotNull final Supplier<Collection<SSTable>> tables,
+            @NotNull final IntegrityMetrics metrics,
+            final long bytesPerSecond,
+            final long intervalMillis) {
+        this.tables = tables;
+        this.metrics = metrics;
+        this.bytesPerSecond = bytesPerSecond;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("scrubber-%d")
+                        .setDaemon(true)
+                        .setPriority(Thread.MIN_PRIORITY)
+                        .build());
+        this.task = executor.scheduleWithFixedDelay(
+                this::scrubInBackground,
+                intervalMillis,
+                intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Walks all the tables once at the given rate, non-positive rate means unlimited.
+     *
+     * @param tables retained by the caller, released here
+     */
+    static void scrub(
+            @NotNull final Collection<SSTable> tables,
+            @NotNull final IntegrityMetrics metrics,
+            final long bytesPerSecond) throws IOException, InterruptedException {
+        scrub(tables, metrics, new Throttle(bytesPerSecond));
+    }
+
+    private static void scrub(
+            @NotNull final Collection<SSTable> tables,
+            @NotNull final IntegrityMetrics metrics,
+            @NotNull final Throttle throttle) throws IOException, InterruptedException {
+        try {
+            for (final SSTable table : tables) {
+                final List<CorruptRange> corrupt = table.scrub(throttle);
+                if (!corrupt.isEmpty()) {
+                    log.error("Corrupt ranges found: {}", corrupt);
+                }
+                metrics.tableScrubbed(table.id(), table.sizeInBytes(), corrupt);
+            }
+        } finally {
+            for (final SSTable table : tables) {
+                table.release();
+            }
+        }
+        metrics.passCompleted();
+    }
+
+    private void scrubInBackground() {
+        try {
+            scrub(tables.get(), metrics, new Throttle(bytesPerSecond, () -> stopped));
+        } catch (CancellationException e) {
+            log.debug("Scrubbing stopped");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.warn("Scrubbing failed", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        stopped = true;
+        task.cancel(false);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                throw new IOException("Can't stop scrubber");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while stopping scrubber", e);
+        }
+    }
+}
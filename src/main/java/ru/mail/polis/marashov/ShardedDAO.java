@@ -0,0 +1,159 @@
+package ru.mail.polis.marashov;
+
+import com.google.common.collect.Iterators;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.DAO;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * {@link DAO} partitioning keys by hash across independent {@link LsmDAO} shards,
+ * so that flushes, compactions and write locks of different shards don't contend.
+ *
+ * <p>Shard {@code i} is stored in the {@code shard-i} subdirectory, the number of shards
+ * can't be changed once data is written. {@link Config} applies to every shard separately.
+ *
+ * @author Alexander Marashov
+ */
+public final class ShardedDAO implements DAO {
+    private static final String SHARD_PREFIX = "shard-";
+    private static final HashFunction HASH = Hashing.murmur3_32();
+
+    private final List<LsmDAO> shards;
+
+    public ShardedDAO(
+            @NotNull final File storage,
+            final int shardCount,
+            @NotNull final Config config) throws IOException {
+        checkArgument(shardCount > 0, "Non-positive shard count: %s", shardCount);
+        checkShardCount(storage, shardCount);
+
+        this.shards = new ArrayList<>(shardCount);
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                final File directory = new File(storage, SHARD_PREFIX + i);
+                if (!directory.exists() && !directory.mkdir()) {
+                    throw new IOException("Can't create directory: " + directory);
+                }
+                shards.add(new LsmDAO(directory, config));
+            }
+        } catch (IOException e) {
+            closeShards(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Merges shard iterators, keys are unique across shards so the result is strictly ascending.
+     */
+    @NotNull
+    @Override
+    public Iterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+        final List<Iterator<Record>> iterators = new ArrayList<>(shards.size());
+        for (final LsmDAO shard : shards) {
+            iterators.add(shard.iterator(from));
+        }
+        return Iterators.mergeSorted(iterators, Comparator.naturalOrder());
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        return shard(key).get(key);
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        shard(key).upsert(key, value);
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        shard(key).remove(key);
+    }
+
+    @Override
+    public void merge(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer operand) throws IOException {
+        shard(key).merge(key, operand);
+    }
+
+    /**
+     * The most severe write backpressure level among the shards.
+     */
+    @NotNull
+    public StallState getStallState() {
+        StallState result = StallState.NONE;
+        for (final LsmDAO shard : shards) {
+            final StallState state = shard.getStallState();
+            if (state.compareTo(result) > 0) {
+                result = state;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        final IOException failure = closeShards(null);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @NotNull
+    private LsmDAO shard(@NotNull final ByteBuffer key) {
+        final int hash = HASH.hashBytes(key.duplicate()).asInt();
+        return shards.get(Math.floorMod(hash, shards.size()));
+    }
+
+    /**
+     * Closes all the shards collecting failures as suppressed exceptions of the first one.
+     */
+    @Nullable
+    private IOException closeShards(@Nullable final IOException cause) {
+        IOException failure = cause;
+        for (final LsmDAO shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        return failure;
+    }
+
+    private static void checkShardCount(
+            @NotNull final File storage,
+            final int shardCount) throws IOException {
+        final File[] shardDirectories = storage.listFiles(
+                file -> file.isDirectory() && file.getName().startsWith(SHARD_PREFIX));
+        if (shardDirectories == null) {
+            throw new IOException("Can't list " + storage);
+        }
+        if (shardDirectories.length > 0 && shardDirectories.length != shardCount) {
+            throw new IllegalStateException(
+                    "Storage " + storage + " has " + shardDirectories.length + " shards, not " + shardCount);
+        }
+    }
+}
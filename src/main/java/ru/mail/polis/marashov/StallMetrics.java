@@ -0,0 +1,58 @@
+package ru.mail.polis.marashov;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write backpressure counters of a {@link LsmDAO}.
+ *
+ * @author Alexander Marashov
+ */
+public final class StallMetrics {
+    private final AtomicLong delayedWrites = new AtomicLong();
+    private final AtomicLong stoppedWrites = new AtomicLong();
+    private final AtomicLong timedOutWrites = new AtomicLong();
+    private final AtomicLong stallNanos = new AtomicLong();
+
+    /**
+     * Number of writes slowed down by a soft limit.
+     */
+    public long getDelayedWrites() {
+        return delayedWrites.get();
+    }
+
+    /**
+     * Number of writes blocked by a hard limit.
+     */
+    public long getStoppedWrites() {
+        return stoppedWrites.get();
+    }
+
+    /**
+     * Number of writes rejected with {@link WriteStallException}.
+     */
+    public long getTimedOutWrites() {
+        return timedOutWrites.get();
+    }
+
+    /**
+     * Total time writers spent delayed or blocked.
+     */
+    public long getStallMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(stallNanos.get());
+    }
+
+    void delayed(final long nanos) {
+        delayedWrites.incrementAndGet();
+        stallNanos.addAndGet(nanos);
+    }
+
+    void stopped(final long nanos) {
+        stoppedWrites.incrementAndGet();
+        stallNanos.addAndGet(nanos);
+    }
+
+    void timedOut() {
+        timedOutWrites.incrementAndGet();
+    }
+}
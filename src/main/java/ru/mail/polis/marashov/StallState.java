@@ -0,0 +1,21 @@
+package ru.mail.polis.marashov;
+
+/**
+ * Write backpressure level of a {@link LsmDAO}.
+ *
+ * @author Alexander Marashov
+ */
+public enum StallState {
+    /**
+     * Writes proceed without delay.
+     */
+    NONE,
+    /**
+     * A soft limit is exceeded, every write is delayed proportionally to the overshoot.
+     */
+    DELAYED,
+    /**
+     * A hard limit is reached, writes block until flushes or compactions catch up.
+     */
+    STOPPED
+}
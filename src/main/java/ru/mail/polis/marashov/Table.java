@@ -0,0 +1,33 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * Sorted source of {@link Cell}s belonging to one generation.
+ *
+ * @author Alexander Marashov
+ */
+interface Table {
+    /**
+     * Provides {@link Cell}s starting at "from" key (inclusive) in ascending key order.
+     */
+    @NotNull
+    Iterator<Cell> iterator(@NotNull ByteBuffer from) throws IOException;
+
+    /**
+     * Point lookup of the {@link Cell} with the key.
+     *
+     * @return the cell or {@code null} if there is no such key in this table
+     */
+    @Nullable
+    Cell get(@NotNull ByteBuffer key) throws IOException;
+
+    long generation();
+
+    long sizeInBytes();
+}
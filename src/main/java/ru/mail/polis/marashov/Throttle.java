@@ -0,0 +1,67 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Keeps the average rate of consumed bytes under the limit by sleeping the caller.
+ *
+ * @author Alexander Marashov
+ */
+final class Throttle {
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final long bytesPerSecond;
+    private final BooleanSupplier stopped;
+    private final long start = System.nanoTime();
+    private long consumed;
+
+    /**
+     * Creates throttle, non-positive limit means no throttling.
+     */
+    Throttle(final long bytesPerSecond) {
+        this(bytesPerSecond, () -> false);
+    }
+
+    /**
+     * Creates throttle failing the caller once stopped, so it can be cancelled without interrupts.
+     */
+    Throttle(
+            final long bytesPerSecond,
+            @NotNull final BooleanSupplier stopped) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.stopped = stopped;
+    }
+
+    /**
+     * Waits until the bytes can be consumed.
+     *
+     * @throws CancellationException if stopped meanwhile
+     */
+    void acquire(final long bytes) throws InterruptedException {
+        checkStopped();
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+
+        consumed += bytes;
+        final long expected = (long) (consumed * NANOS_PER_SECOND / bytesPerSecond);
+        for (long ahead = expected - (System.nanoTime() - start);
+             ahead > 0;
+             ahead = expected - (System.nanoTime() - start)) {
+            // Short sleeps not to delay stopping
+            TimeUnit.NANOSECONDS.sleep(Math.min(ahead, MAX_SLEEP_NANOS));
+            checkStopped();
+        }
+    }
+
+    private void checkStopped() {
+        if (stopped.getAsBoolean()) {
+            throw new CancellationException("Stopped");
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Value stored in a {@link Table}: either live data, a tombstone
+ * or {@link MergeOperator} operands to apply to the older value.
+ * Data with operands which the operator failed to apply to it is kept unmerged,
+ * so it isn't lost, and fails reads until the key is overwritten.
+ *
+ * @author Alexander Marashov
+ */
+final class Value {
+    private static final Value TOMBSTONE = new Value(null, null);
+
+    @Nullable
+    private final ByteBuffer data;
+    // Oldest first
+    @Nullable
+    private final List<ByteBuffer> operands;
+
+    private Value(
+            @Nullable final ByteBuffer data,
+            @Nullable final List<ByteBuffer> operands) {
+        this.data = data;
+        this.operands = operands;
+    }
+
+    @NotNull
+    static Value of(@NotNull final ByteBuffer data) {
+        return new Value(data, null);
+    }
+
+    @NotNull
+    static Value tombstone() {
+        return TOMBSTONE;
+    }
+
+    @NotNull
+    static Value operands(@NotNull final List<ByteBuffer> operands) {
+        return new Value(null, List.copyOf(operands));
+    }
+
+    @NotNull
+    static Value unmerged(
+            @NotNull final ByteBuffer data,
+            @NotNull final List<ByteBuffer> operands) {
+        return new Value(data, List.copyOf(operands));
+    }
+
+    boolean isTombstone() {
+        return data == null && operands == null;
+    }
+
+    /**
+     * Whether these are operands to apply to the older value.
+     */
+    boolean isOperands() {
+        return data == null && operands != null;
+    }
+
+    /**
+     * Whether this is data with operands failed to apply to it, older values don't matter then.
+     */
+    boolean isUnmerged() {
+        return data != null && operands != null;
+    }
+
+    /**
+     * Returns live data or the data operands of an unmerged value failed to apply to.
+     */
+    @NotNull
+    ByteBuffer getData() {
+        if (data == null) {
+            throw new IllegalStateException("Tombstone or operands have no data");
+        }
+        return data.asReadOnlyBuffer();
+    }
+
+    @NotNull
+    List<ByteBuffer> getOperands() {
+        if (operands == null) {
+            throw new IllegalStateException("Not operands");
+        }
+        return operands;
+    }
+
+    long sizeInBytes() {
+        long result = data == null ? 0L : data.remaining();
+        if (operands != null) {
+            for (final ByteBuffer operand : operands) {
+                result += operand.remaining();
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,121 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Applies backpressure to writers when flushes or compactions fall behind.
+ *
+ * <p>Pressure is the largest overshoot of the soft limits of pending flush bytes and table count,
+ * normalized so that 0 is a soft limit and 1 is the corresponding hard limit.
+ *
+ * @author Alexander Marashov
+ */
+final class WriteController {
+    private final Config config;
+    private final LongSupplier pendingFlushBytes;
+    private final IntSupplier tableCount;
+    private final StallMetrics metrics = new StallMetrics();
+    private final Object monitor = new Object();
+
+    WriteController(
+            @NotNull final Config config,
+            @NotNull final LongSupplier pendingFlushBytes,
+            @NotNull final IntSupplier tableCount) {
+        this.config = config;
+        this.pendingFlushBytes = pendingFlushBytes;
+        this.tableCount = tableCount;
+    }
+
+    @NotNull
+    StallState state() {
+        final double pressure = pressure();
+        if (pressure < 0) {
+            return StallState.NONE;
+        }
+        return pressure < 1 ? StallState.DELAYED : StallState.STOPPED;
+    }
+
+    @NotNull
+    StallMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Delays or blocks the calling writer according to the current pressure.
+     *
+     * @throws WriteStallException if a hard limit holds for longer than the stall timeout
+     */
+    void beforeWrite() throws IOException {
+        final double pressure = pressure();
+        if (pressure < 0) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            if (pressure < 1) {
+                final long maxDelay = TimeUnit.MILLISECONDS.toNanos(config.getMaxWriteDelayMillis());
+                TimeUnit.NANOSECONDS.sleep((long) (maxDelay * pressure));
+                metrics.delayed(System.nanoTime() - start);
+            } else {
+                awaitBelowHardLimits(start);
+                metrics.stopped(System.nanoTime() - start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while stalled", e);
+        }
+    }
+
+    /**
+     * Wakes up blocked writers to reevaluate the pressure.
+     */
+    void signal() {
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+    }
+
+    private void awaitBelowHardLimits(final long start) throws InterruptedException, WriteStallException {
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(config.getStallTimeoutMillis());
+        synchronized (monitor) {
+            while (pressure() >= 1) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    metrics.timedOut();
+                    throw new WriteStallException(
+                            "Writes stopped: " + pendingFlushBytes.getAsLong() + " bytes pending flush, "
+                                    + tableCount.getAsInt() + " tables");
+                }
+                TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+            }
+        }
+    }
+
+    private double pressure() {
+        return Math.max(
+                overshoot(
+                        pendingFlushBytes.getAsLong(),
+                        config.getSoftPendingFlushBytes(),
+                        config.getHardPendingFlushBytes()),
+                overshoot(
+                        tableCount.getAsInt(),
+                        config.getSoftTableCount(),
+                        config.getHardTableCount()));
+    }
+
+    private static double overshoot(
+            final long value,
+            final long soft,
+            final long hard) {
+        if (value < soft) {
+            return -1;
+        }
+        return (double) (value - soft) / (hard - soft);
+    }
+}
@@ -0,0 +1,18 @@
+package ru.mail.polis.marashov;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a write is blocked by a hard limit for longer than {@link Config#getStallTimeoutMillis()}.
+ *
+ * @author Alexander Marashov
+ */
+public class WriteStallException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    WriteStallException(@NotNull final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,293 @@
+package ru.mail.polis.net;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.DAO;
+import ru.mail.polis.Record;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Blocking {@link Protocol} client exposing a remote storage as {@link DAO}.
+ *
+ * <p>Requests may also be pipelined: issue several {@code send*} calls, {@link #flush()} them
+ * and then {@link #receive()} responses in the same order. {@link DAO} methods must not be called
+ * while pipelined responses are outstanding, and range iterators must be exhausted before the next request.
+ *
+ * @author Alexander Marashov
+ */
+public final class BinaryClient implements DAO {
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+
+    public BinaryClient(@NotNull final InetSocketAddress address) throws IOException {
+        this.socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    public void sendGet(@NotNull final ByteBuffer key) throws IOException {
+        send(Protocol.GET, key);
+    }
+
+    public void sendUpsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        send(Protocol.PUT, key, value);
+    }
+
+    public void sendRemove(@NotNull final ByteBuffer key) throws IOException {
+        send(Protocol.REMOVE, key);
+    }
+
+    public void sendMerge(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer operand) throws IOException {
+        send(Protocol.MERGE, key, operand);
+    }
+
+    /**
+     * Requests a range which is answered with {@link Response.Status#RECORD}s
+     * terminated by either {@link Response.Status#END} or {@link Response.Status#ERROR}.
+     */
+    public void sendRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        send(Protocol.RANGE, from, to);
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @NotNull
+    public Response receive() throws IOException {
+        final byte op = in.readByte();
+        final int size = in.readInt();
+        if (size < 0 || size > Protocol.MAX_PAYLOAD_SIZE) {
+            throw new IOException("Bad payload size " + size);
+        }
+        final byte[] payload = new byte[size];
+        in.readFully(payload);
+        return new Response(Response.Status.of(op), ByteBuffer.wrap(payload));
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException {
+        sendGet(key);
+        flush();
+        final Response response = receive();
+        if (response.getStatus() == Response.Status.NOT_FOUND) {
+            throw new NoSuchElementException("Not found");
+        }
+        return response.check(Response.Status.OK).getValue();
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        sendUpsert(key, value);
+        flush();
+        receive().check(Response.Status.OK);
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        sendRemove(key);
+        flush();
+        receive().check(Response.Status.OK);
+    }
+
+    @Override
+    public void merge(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer operand) throws IOException {
+        sendMerge(key, operand);
+        flush();
+        receive().check(Response.Status.OK);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+        return range(from, null);
+    }
+
+    /**
+     * Streams records from the server as the iterator advances.
+     */
+    @NotNull
+    @Override
+    public Iterator<Record> range(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        sendRange(from, to);
+        flush();
+        return new RangeIterator(receive());
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private void send(
+            final byte op,
+            @Nullable final ByteBuffer... fields) throws IOException {
+        int size = 0;
+        for (final ByteBuffer field : fields) {
+            size += Protocol.sizeOf(field);
+        }
+
+        out.writeByte(op);
+        out.writeInt(size);
+        for (final ByteBuffer field : fields) {
+            if (field == null) {
+                out.writeInt(Protocol.ABSENT);
+            } else {
+                final byte[] bytes = new byte[field.remaining()];
+                field.duplicate().get(bytes);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    private final class RangeIterator implements Iterator<Record> {
+        @Nullable
+        private Record next;
+
+        RangeIterator(@NotNull final Response first) throws IOException {
+            this.next = toRecord(first);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Record next() {
+            if (next == null) {
+                throw new NoSuchElementException("Range is over");
+            }
+
+            final Record result = next;
+            try {
+                next = toRecord(receive());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return result;
+        }
+
+        @Nullable
+        private Record toRecord(@NotNull final Response response) throws IOException {
+            if (response.getStatus() == Response.Status.END) {
+                return null;
+            }
+            return response.check(Response.Status.RECORD).getRecord();
+        }
+    }
+
+    /**
+     * Single response frame.
+     */
+    public static final class Response {
+        private final Status status;
+        private final ByteBuffer payload;
+
+        Response(
+                @NotNull final Status status,
+                @NotNull final ByteBuffer payload) {
+            this.status = status;
+            this.payload = payload;
+        }
+
+        @NotNull
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Value of a successful get.
+         */
+        @NotNull
+        public ByteBuffer getValue() {
+            return payload.asReadOnlyBuffer();
+        }
+
+        @NotNull
+        public Record getRecord() {
+            final ByteBuffer buffer = payload.duplicate();
+            final ByteBuffer key = Protocol.getRequiredField(buffer);
+            return Record.of(key, buffer.slice());
+        }
+
+        @NotNull
+        public String getMessage() {
+            return StandardCharsets.UTF_8.decode(payload.duplicate()).toString();
+        }
+
+        @NotNull
+        Response check(@NotNull final Status expected) throws IOException {
+            if (status == Status.ERROR) {
+                throw new IOException("Server error: " + getMessage());
+            }
+            if (status != expected) {
+                throw new IOException("Unexpected response " + status + " instead of " + expected);
+            }
+            return this;
+        }
+
+        /**
+         * Response kinds.
+         */
+        public enum Status {
+            OK,
+            NOT_FOUND,
+            ERROR,
+            RECORD,
+            END;
+
+            @NotNull
+            static Status of(final byte op) throws IOException {
+                switch (op) {
+                    case Protocol.OK:
+                        return OK;
+                    case Protocol.NOT_FOUND:
+                        return NOT_FOUND;
+                    case Protocol.ERROR:
+                        return ERROR;
+                    case Protocol.RECORD:
+                        return RECORD;
+                    case Protocol.END:
+                        return END;
+                    default:
+                        throw new IOException("Unknown response " + op);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,527 @@
+package ru.mail.polis.net;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.DAO;
+import ru.mail.polis.Record;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Serves a {@link DAO} over {@link Protocol}.
+ *
+ * <p>A single selector thread does the network I/O, while the {@link DAO} is called from a pool
+ * of workers, so disk reads and write stalls don't hold up the other connections.
+ * Requests of a connection are served by one worker at a time in order, so responses
+ * keep the order of pipelined requests.
+ *
+ * <p>Range responses are streamed: records are pulled from the iterator only while
+ * the connection output buffer is below {@link #HIGH_WATER_MARK}. The connection isn't read from
+ * while {@link #MAX_QUEUED_REQUESTS} requests are waiting, so slow clients don't make the server
+ * buffer without bound.
+ *
+ * @author Alexander Marashov
+ */
+public final class BinaryServer implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(BinaryServer.class);
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    private static final int HIGH_WATER_MARK = 64 * 1024;
+    private static final int MAX_QUEUED_REQUESTS = 256;
+    // DAO calls mostly wait for disk or write stalls rather than use CPU
+    private static final int DEFAULT_WORKERS = 4 * Runtime.getRuntime().availableProcessors();
+    private static final ByteBuffer NOTHING = ByteBuffer.allocate(0);
+    private static final Request PUMP_RANGE = BinaryServer::pumpRange;
+
+    private final DAO dao;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final ExecutorService workers;
+    // Connections with new responses or room for more requests, handled by the selector thread
+    private final Queue<Connection> updated = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean closed;
+
+    /**
+     * Binds to the port right away, use zero port to pick any free one.
+     */
+    public BinaryServer(
+            @NotNull final DAO dao,
+            @NotNull final InetSocketAddress address) throws IOException {
+        this(dao, address, DEFAULT_WORKERS);
+    }
+
+    /**
+     * Binds to the port right away, use zero port to pick any free one.
+     *
+     * @param workers number of threads calling the {@link DAO}
+     */
+    public BinaryServer(
+            @NotNull final DAO dao,
+            @NotNull final InetSocketAddress address,
+            final int workers) throws IOException {
+        checkArgument(workers > 0, "Non-positive worker count: %s", workers);
+        this.dao = dao;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            server.bind(address);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        this.workers = Executors.newFixedThreadPool(
+                workers,
+                new ThreadFactoryBuilder().setNameFormat("server-worker-%d").build());
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Handles connections in the calling thread until {@link #close()}.
+     */
+    public void serve() throws IOException {
+        try {
+            while (!closed) {
+                selector.select();
+                for (Connection connection = updated.poll(); connection != null; connection = updated.poll()) {
+                    if (connection.key.isValid()) {
+                        refresh(connection, false);
+                    }
+                }
+
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        refresh((Connection) key.attachment(), key.isReadable());
+                    }
+                }
+            }
+        } finally {
+            for (final SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+            // Workers stop serving closed connections, but let the DAO calls in progress complete
+            workers.shutdown();
+            awaitTermination(workers);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    /**
+     * Reads and queues new requests, writes responses and hands the connection to a worker
+     * if it has requests to serve and nobody serves them yet.
+     */
+    private void refresh(
+            @NotNull final Connection connection,
+            final boolean readable) {
+        try {
+            if (readable && !connection.read()) {
+                connection.channel.close();
+                return;
+            }
+            parse(connection);
+            if (connection.update()) {
+                workers.execute(() -> drain(connection));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Only this connection is affected whatever happens
+            log.warn("Closing connection", e);
+            try {
+                connection.channel.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+        }
+    }
+
+    /**
+     * Queues complete requests until there are too many of them.
+     * Fields are parsed right away, since the input buffer is reused.
+     */
+    private void parse(@NotNull final Connection connection) throws IOException {
+        final ByteBuffer in = connection.in;
+        in.flip();
+        try {
+            while (connection.queued() < MAX_QUEUED_REQUESTS) {
+                if (in.remaining() < Protocol.HEADER_SIZE) {
+                    break;
+                }
+                final byte op = in.get(in.position());
+                final int size = in.getInt(in.position() + Byte.BYTES);
+                if (size < 0 || size > Protocol.MAX_PAYLOAD_SIZE) {
+                    throw new IOException("Bad payload size " + size);
+                }
+                if (in.remaining() < Protocol.HEADER_SIZE + size) {
+                    connection.expect(Protocol.HEADER_SIZE + size);
+                    break;
+                }
+
+                in.position(in.position() + Protocol.HEADER_SIZE);
+                final ByteBuffer payload = in.slice();
+                payload.limit(size);
+                in.position(in.position() + size);
+                connection.enqueue(request(op, payload));
+            }
+        } finally {
+            // The buffer could have been replaced to fit a big frame
+            connection.in.compact();
+        }
+    }
+
+    @NotNull
+    private Request request(
+            final byte op,
+            @NotNull final ByteBuffer payload) {
+        try {
+            switch (op) {
+                case Protocol.GET: {
+                    final ByteBuffer key = Protocol.getRequiredField(payload);
+                    return connection -> serveGet(connection, key);
+                }
+                case Protocol.PUT: {
+                    final ByteBuffer key = Protocol.getRequiredField(payload);
+                    final ByteBuffer value = Protocol.getRequiredField(payload);
+                    return connection -> {
+                        dao.upsert(key, value);
+                        connection.send(Protocol.OK, NOTHING);
+                    };
+                }
+                case Protocol.REMOVE: {
+                    final ByteBuffer key = Protocol.getRequiredField(payload);
+                    return connection -> {
+                        dao.remove(key);
+                        connection.send(Protocol.OK, NOTHING);
+                    };
+                }
+                case Protocol.MERGE: {
+                    final ByteBuffer key = Protocol.getRequiredField(payload);
+                    final ByteBuffer operand = Protocol.getRequiredField(payload);
+                    return connection -> {
+                        dao.merge(key, operand);
+                        connection.send(Protocol.OK, NOTHING);
+                    };
+                }
+                case Protocol.RANGE: {
+                    final ByteBuffer from = Protocol.getRequiredField(payload);
+                    final ByteBuffer to = Protocol.getField(payload);
+                    return connection -> connection.range = dao.range(from, to);
+                }
+                default:
+                    return connection -> connection.sendError("Unknown op " + op);
+            }
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            log.debug("Malformed request", e);
+            final String message = String.valueOf(e.getMessage());
+            return connection -> connection.sendError(message);
+        }
+    }
+
+    /**
+     * Serves requests of the connection in a worker until there are none left
+     * or the output is above the high water mark.
+     */
+    private void drain(@NotNull final Connection connection) {
+        try {
+            for (Request request = connection.next(); request != null; request = connection.next()) {
+                serve(connection, request);
+                notifyUpdated(connection);
+            }
+        } finally {
+            // Let the selector resume reading or hand the connection to a worker again
+            notifyUpdated(connection);
+        }
+    }
+
+    private void notifyUpdated(@NotNull final Connection connection) {
+        if (connection.markUpdated()) {
+            updated.add(connection);
+            selector.wakeup();
+        }
+    }
+
+    private static void serve(
+            @NotNull final Connection connection,
+            @NotNull final Request request) {
+        try {
+            request.serve(connection);
+        } catch (IOException
+                | UncheckedIOException
+                | IllegalArgumentException
+                | UnsupportedOperationException e) {
+            log.debug("Request failed", e);
+            connection.sendError(String.valueOf(e.getMessage()));
+        } catch (RuntimeException e) {
+            log.warn("Request failed", e);
+            connection.sendError(String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void serveGet(
+            @NotNull final Connection connection,
+            @NotNull final ByteBuffer key) throws IOException {
+        final ByteBuffer value;
+        try {
+            value = dao.get(key);
+        } catch (NoSuchElementException e) {
+            connection.send(Protocol.NOT_FOUND, NOTHING);
+            return;
+        }
+        connection.send(Protocol.OK, value);
+    }
+
+    private static void pumpRange(@NotNull final Connection connection) {
+        final Iterator<Record> range = connection.range;
+        assert range != null;
+        try {
+            while (connection.buffered() < HIGH_WATER_MARK && range.hasNext()) {
+                final Record record = range.next();
+                connection.send(Protocol.RECORD, record.getKey(), record.getValue());
+            }
+            if (!range.hasNext()) {
+                connection.range = null;
+                connection.send(Protocol.END, NOTHING);
+            }
+        } catch (UncheckedIOException e) {
+            log.debug("Range failed", e);
+            connection.range = null;
+            connection.sendError(String.valueOf(e.getMessage()));
+        } catch (RuntimeException e) {
+            log.warn("Range failed", e);
+            connection.range = null;
+            connection.sendError(String.valueOf(e.getMessage()));
+        }
+    }
+
+    private static void awaitTermination(@NotNull final ExecutorService executor) throws IOException {
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                throw new IOException("Requests didn't finish in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing", e);
+        }
+    }
+
+    /**
+     * Request with fields parsed, served by a worker.
+     */
+    @FunctionalInterface
+    private interface Request {
+        void serve(@NotNull Connection connection) throws IOException;
+    }
+
+    /**
+     * The input buffer is accessed by the selector thread only, and the range by the worker
+     * serving the connection. The rest is guarded by the connection monitor.
+     */
+    private static final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final Queue<Request> requests = new ArrayDeque<>();
+        // Both buffers are kept in write mode
+        private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private ByteBuffer out = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        @Nullable
+        private Iterator<Record> range;
+        // Whether a worker serves the requests
+        private boolean busy;
+        // Whether the connection is queued for the selector thread
+        private boolean updated;
+
+        Connection(
+                @NotNull final SocketChannel channel,
+                @NotNull final SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        /**
+         * Reads available bytes.
+         *
+         * @return false if the peer has closed the connection
+         */
+        boolean read() throws IOException {
+            if (!in.hasRemaining()) {
+                in = grow(in, in.capacity() * 2);
+            }
+            return channel.read(in) >= 0;
+        }
+
+        /**
+         * Makes room for a frame of the given size, the input buffer must be in read mode.
+         */
+        void expect(final int frameSize) {
+            if (in.capacity() < frameSize) {
+                final ByteBuffer bigger = ByteBuffer.allocate(frameSize);
+                bigger.put(in);
+                bigger.flip();
+                in = bigger;
+            }
+        }
+
+        synchronized int queued() {
+            return requests.size();
+        }
+
+        synchronized void enqueue(@NotNull final Request request) {
+            requests.add(request);
+        }
+
+        /**
+         * Writes buffered responses and updates the interest set.
+         *
+         * @return whether a worker has to be started to serve the requests
+         */
+        synchronized boolean update() throws IOException {
+            updated = false;
+            out.flip();
+            try {
+                channel.write(out);
+            } finally {
+                out.compact();
+            }
+
+            int ops = 0;
+            if (requests.size() < MAX_QUEUED_REQUESTS) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (out.position() > 0) {
+                // Resume serving as soon as the output drains
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+
+            if (busy || out.position() >= HIGH_WATER_MARK || (range == null && requests.isEmpty())) {
+                return false;
+            }
+            busy = true;
+            return true;
+        }
+
+        /**
+         * Takes the next request for the worker serving the connection.
+         *
+         * @return the request or null if the worker has to stop
+         */
+        @Nullable
+        synchronized Request next() {
+            if (!channel.isOpen() || out.position() >= HIGH_WATER_MARK) {
+                busy = false;
+                return null;
+            }
+            if (range != null) {
+                return PUMP_RANGE;
+            }
+            final Request request = requests.poll();
+            if (request == null) {
+                busy = false;
+            }
+            return request;
+        }
+
+        /**
+         * Marks the connection as queued for the selector thread.
+         *
+         * @return false if it is queued already
+         */
+        synchronized boolean markUpdated() {
+            if (updated) {
+                return false;
+            }
+            updated = true;
+            return true;
+        }
+
+        synchronized int buffered() {
+            return out.position();
+        }
+
+        synchronized void send(
+                final byte op,
+                @NotNull final ByteBuffer... fields) {
+            int size = 0;
+            for (final ByteBuffer field : fields) {
+                size += field.remaining();
+            }
+            // The last field takes the rest of the payload, so it is not size-prefixed
+            size += Integer.BYTES * (fields.length - 1);
+
+            if (out.remaining() < Protocol.HEADER_SIZE + size) {
+                out = grow(out, out.position() + Protocol.HEADER_SIZE + size);
+            }
+            out.put(op);
+            out.putInt(size);
+            for (int i = 0; i < fields.length - 1; i++) {
+                Protocol.putField(out, fields[i]);
+            }
+            out.put(fields[fields.length - 1].duplicate());
+        }
+
+        void sendError(@NotNull final String message) {
+            send(Protocol.ERROR, ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @NotNull
+        private static ByteBuffer grow(
+                @NotNull final ByteBuffer buffer,
+                final int capacity) {
+            final ByteBuffer bigger = ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 2));
+            buffer.flip();
+            bigger.put(buffer);
+            return bigger;
+        }
+    }
+}
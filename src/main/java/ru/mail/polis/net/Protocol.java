@@ -0,0 +1,94 @@
+package ru.mail.polis.net;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary protocol shared by {@link BinaryServer} and {@link BinaryClient}.
+ *
+ * <p>Every message is a frame {@code op:byte payloadSize:int payload}, integers are big-endian.
+ * Byte strings in the payload are prefixed with their int size ({@code -1} stands for an absent one)
+ * except for the last field of a response which takes the rest of the payload.
+ * <pre>
+ * GET     key            -> OK value | NOT_FOUND | ERROR message
+ * PUT     key value      -> OK | ERROR message
+ * REMOVE  key            -> OK | ERROR message
+ * RANGE   from to?       -> RECORD* (END | ERROR message)
+ * MERGE   key operand    -> OK | ERROR message
+ * RECORD  key value
+ * </pre>
+ * Clients may pipeline requests, responses are sent in the order of requests.
+ *
+ * @author Alexander Marashov
+ */
+public final class Protocol {
+    public static final int DEFAULT_PORT = 8765;
+
+    static final int HEADER_SIZE = Byte.BYTES + Integer.BYTES;
+    static final int MAX_PAYLOAD_SIZE = 16 * 1024 * 1024;
+    static final int ABSENT = -1;
+
+    // Requests
+    static final byte GET = 1;
+    static final byte PUT = 2;
+    static final byte REMOVE = 3;
+    static final byte RANGE = 4;
+    static final byte MERGE = 5;
+
+    // Responses
+    static final byte OK = 0;
+    static final byte NOT_FOUND = 1;
+    static final byte ERROR = 2;
+    static final byte RECORD = 3;
+    static final byte END = 4;
+
+    private Protocol() {
+        // Not instantiable
+    }
+
+    static int sizeOf(@Nullable final ByteBuffer field) {
+        return Integer.BYTES + (field == null ? 0 : field.remaining());
+    }
+
+    static void putField(
+            @NotNull final ByteBuffer out,
+            @Nullable final ByteBuffer field) {
+        if (field == null) {
+            out.putInt(ABSENT);
+        } else {
+            out.putInt(field.remaining());
+            out.put(field.duplicate());
+        }
+    }
+
+    /**
+     * Reads a size-prefixed field copying its bytes.
+     *
+     * @throws IllegalArgumentException if the size is malformed
+     */
+    @Nullable
+    static ByteBuffer getField(@NotNull final ByteBuffer in) {
+        final int size = in.getInt();
+        if (size == ABSENT) {
+            return null;
+        }
+        if (size < 0 || size > in.remaining()) {
+            throw new IllegalArgumentException("Bad field size " + size);
+        }
+
+        final byte[] bytes = new byte[size];
+        in.get(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    @NotNull
+    static ByteBuffer getRequiredField(@NotNull final ByteBuffer in) {
+        final ByteBuffer result = getField(in);
+        if (result == null) {
+            throw new IllegalArgumentException("Missing field");
+        }
+        return result;
+    }
+}
@@ -0,0 +1,122 @@
+package ru.mail.polis.trace;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.DAO;
+import ru.mail.polis.Record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * {@link DAO} decorator recording all the operations to a {@link TraceWriter}.
+ * Trace write failures stop the recording, but don't fail the operations.
+ *
+ * <p>Iterations are recorded when started, how far they advance is not recorded.
+ *
+ * @author Alexander Marashov
+ */
+public final class RecordingDAO implements DAO {
+    private static final Logger log = LoggerFactory.getLogger(RecordingDAO.class);
+
+    private final DAO delegate;
+    private final TraceWriter trace;
+    private volatile boolean recording = true;
+
+    /**
+     * Takes ownership of the trace, it is closed with this DAO.
+     */
+    public RecordingDAO(
+            @NotNull final DAO delegate,
+            @NotNull final TraceWriter trace) {
+        this.delegate = delegate;
+        this.trace = trace;
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            return delegate.iterator(from);
+        } finally {
+            record(TraceEvent.Op.ITERATE, start, from, TraceEvent.ABSENT);
+        }
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException {
+        final long start = System.nanoTime();
+        int size = TraceEvent.ABSENT;
+        try {
+            final ByteBuffer value = delegate.get(key);
+            size = value.remaining();
+            return value;
+        } finally {
+            record(TraceEvent.Op.GET, start, key, size);
+        }
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            delegate.upsert(key, value);
+        } finally {
+            record(TraceEvent.Op.PUT, start, key, value.remaining());
+        }
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            delegate.remove(key);
+        } finally {
+            record(TraceEvent.Op.REMOVE, start, key, TraceEvent.ABSENT);
+        }
+    }
+
+    @Override
+    public void merge(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer operand) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            delegate.merge(key, operand);
+        } finally {
+            record(TraceEvent.Op.MERGE, start, key, operand.remaining());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            delegate.close();
+        } finally {
+            trace.close();
+        }
+    }
+
+    private void record(
+            @NotNull final TraceEvent.Op op,
+            final long start,
+            @NotNull final ByteBuffer key,
+            final int valueSize) {
+        if (!recording) {
+            return;
+        }
+
+        try {
+            trace.write(op, start, System.nanoTime(), key, valueSize);
+        } catch (IOException e) {
+            recording = false;
+            log.error("Can't write trace, recording stopped", e);
+        }
+    }
+}
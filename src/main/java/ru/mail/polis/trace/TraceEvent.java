@@ -0,0 +1,103 @@
+package ru.mail.polis.trace;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ru.mail.polis.DAO} operation recorded to a trace.
+ *
+ * @author Alexander Marashov
+ */
+public final class TraceEvent {
+    /**
+     * {@link #getValueSize()} of operations without value, e.g. gets of absent keys.
+     */
+    public static final int ABSENT = -1;
+
+    private final Op op;
+    private final long stream;
+    private final long startMicros;
+    private final long latencyMicros;
+    private final ByteBuffer key;
+    private final int valueSize;
+
+    TraceEvent(
+            @NotNull final Op op,
+            final long stream,
+            final long startMicros,
+            final long latencyMicros,
+            @NotNull final ByteBuffer key,
+            final int valueSize) {
+        this.op = op;
+        this.stream = stream;
+        this.startMicros = startMicros;
+        this.latencyMicros = latencyMicros;
+        this.key = key;
+        this.valueSize = valueSize;
+    }
+
+    @NotNull
+    public Op getOp() {
+        return op;
+    }
+
+    /**
+     * Sequence of operations the event belongs to, i.e. the recording thread.
+     * Operations of different streams may be concurrent, the ones of a stream may not.
+     */
+    public long getStream() {
+        return stream;
+    }
+
+    /**
+     * Start of the operation since the start of the trace.
+     */
+    public long getStartMicros() {
+        return startMicros;
+    }
+
+    public long getLatencyMicros() {
+        return latencyMicros;
+    }
+
+    /**
+     * Key of the operation or start key of {@link Op#ITERATE}.
+     */
+    @NotNull
+    public ByteBuffer getKey() {
+        return key.asReadOnlyBuffer();
+    }
+
+    /**
+     * Size of the value written, read or merged, {@link #ABSENT} if there is none.
+     */
+    public int getValueSize() {
+        return valueSize;
+    }
+
+    /**
+     * Traced operation type.
+     */
+    public enum Op {
+        GET,
+        PUT,
+        REMOVE,
+        MERGE,
+        ITERATE;
+
+        private static final Op[] VALUES = values();
+
+        byte code() {
+            return (byte) ordinal();
+        }
+
+        @NotNull
+        static Op of(final byte code) {
+            if (code < 0 || code >= VALUES.length) {
+                throw new IllegalArgumentException("Unknown op " + code);
+            }
+            return VALUES[code];
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ru.mail.polis.trace;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary trace file format shared by {@link TraceWriter} and {@link TraceReader}.
+ *
+ * <pre>
+ * trace  := magic:int startMillis:long event*
+ * event  := op:byte startDelta:zigzag stream:varint keySize:varint key latency:varint valueSize:varint
+ * </pre>
+ * The stream is the id of the recording thread, so that operations of one stream are sequential.
+ * Timings are in microseconds, the start delta is relative to the start of the previous event,
+ * which may be negative for concurrent operations. Value size is stored incremented by one,
+ * so that zero stands for {@link TraceEvent#ABSENT}. Varints are LEB128 encoded.
+ *
+ * @author Alexander Marashov
+ */
+final class TraceFormat {
+    static final int MAGIC = 0x54524332;
+
+    private static final int PAYLOAD_BITS = 7;
+    private static final int PAYLOAD_MASK = (1 << PAYLOAD_BITS) - 1;
+    private static final int CONTINUATION = 1 << PAYLOAD_BITS;
+
+    private TraceFormat() {
+        // Not instantiable
+    }
+
+    static void writeVarLong(
+            @NotNull final DataOutput out,
+            final long value) throws IOException {
+        long rest = value;
+        while ((rest & ~PAYLOAD_MASK) != 0) {
+            out.writeByte((int) (rest & PAYLOAD_MASK) | CONTINUATION);
+            rest >>>= PAYLOAD_BITS;
+        }
+        out.writeByte((int) rest);
+    }
+
+    static long readVarLong(@NotNull final DataInput in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += PAYLOAD_BITS) {
+            final int b = in.readUnsignedByte();
+            result |= (long) (b & PAYLOAD_MASK) << shift;
+            if ((b & CONTINUATION) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static long zigZag(final long value) {
+        return (value << 1) ^ (value >> (Long.SIZE - 1));
+    }
+
+    static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,84 @@
+package ru.mail.polis.trace;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads {@link TraceEvent}s written by {@link TraceWriter} in order.
+ *
+ * @author Alexander Marashov
+ */
+public final class TraceReader implements Closeable {
+    private final DataInputStream in;
+    private final long startMillis;
+    private long previousStartMicros;
+
+    public TraceReader(@NotNull final File file) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != TraceFormat.MAGIC) {
+                throw new IOException("Not a trace: " + file);
+            }
+            this.startMillis = in.readLong();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Wall clock time the trace was started at.
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Reads the next event.
+     *
+     * @return the event or {@code null} at the end of the trace
+     */
+    @Nullable
+    public TraceEvent next() throws IOException {
+        final int op = in.read();
+        if (op < 0) {
+            return null;
+        }
+
+        try {
+            final long startMicros = previousStartMicros + TraceFormat.unZigZag(TraceFormat.readVarLong(in));
+            final long stream = TraceFormat.readVarLong(in);
+            final byte[] key = new byte[Math.toIntExact(TraceFormat.readVarLong(in))];
+            in.readFully(key);
+            final long latencyMicros = TraceFormat.readVarLong(in);
+            final int valueSize = Math.toIntExact(TraceFormat.readVarLong(in) - 1);
+            previousStartMicros = startMicros;
+            return new TraceEvent(
+                    TraceEvent.Op.of((byte) op),
+                    stream,
+                    startMicros,
+                    latencyMicros,
+                    ByteBuffer.wrap(key),
+                    valueSize);
+        } catch (EOFException e) {
+            // The recording process could have been killed in the middle of an event
+            return null;
+        } catch (ArithmeticException | IllegalArgumentException e) {
+            throw new IOException("Malformed trace event", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,93 @@
+package ru.mail.polis.trace;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends {@link TraceEvent}s to a trace file, safe for concurrent use.
+ * Events are encoded by the calling threads, only the start delta and the final append are serialized.
+ *
+ * @author Alexander Marashov
+ */
+public final class TraceWriter implements Closeable {
+    private static final ThreadLocal<Encoder> ENCODERS = ThreadLocal.withInitial(Encoder::new);
+
+    private final DataOutputStream out;
+    private final long startNanos;
+    private long previousStartMicros;
+
+    /**
+     * Creates the trace file or truncates the existing one.
+     */
+    public TraceWriter(@NotNull final File file) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        this.startNanos = System.nanoTime();
+        out.writeInt(TraceFormat.MAGIC);
+        out.writeLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Records the operation of the calling thread stream.
+     *
+     * @param startNanos {@link System#nanoTime()} at the start of the operation
+     * @param endNanos {@link System#nanoTime()} at the end of the operation
+     * @param valueSize or {@link TraceEvent#ABSENT}
+     */
+    public void write(
+            @NotNull final TraceEvent.Op op,
+            final long startNanos,
+            final long endNanos,
+            @NotNull final ByteBuffer key,
+            final int valueSize) throws IOException {
+        final long startMicros = TimeUnit.NANOSECONDS.toMicros(startNanos - this.startNanos);
+        final Encoder encoder = ENCODERS.get();
+        encoder.reset();
+        TraceFormat.writeVarLong(encoder.data, Thread.currentThread().getId());
+        TraceFormat.writeVarLong(encoder.data, key.remaining());
+        encoder.writeKey(key);
+        TraceFormat.writeVarLong(encoder.data, TimeUnit.NANOSECONDS.toMicros(endNanos - startNanos));
+        TraceFormat.writeVarLong(encoder.data, valueSize + 1L);
+        append(op, startMicros, encoder);
+    }
+
+    private synchronized void append(
+            @NotNull final TraceEvent.Op op,
+            final long startMicros,
+            @NotNull final Encoder encoder) throws IOException {
+        out.writeByte(op.code());
+        TraceFormat.writeVarLong(out, TraceFormat.zigZag(startMicros - previousStartMicros));
+        encoder.writeTo(out);
+        previousStartMicros = startMicros;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Reusable buffer for the event fields following the start delta.
+     */
+    private static final class Encoder extends ByteArrayOutputStream {
+        private final DataOutputStream data = new DataOutputStream(this);
+
+        void writeKey(@NotNull final ByteBuffer key) {
+            if (key.hasArray()) {
+                write(key.array(), key.arrayOffset() + key.position(), key.remaining());
+            } else {
+                final byte[] bytes = new byte[key.remaining()];
+                key.duplicate().get(bytes);
+                write(bytes, 0, bytes.length);
+            }
+        }
+    }
+}
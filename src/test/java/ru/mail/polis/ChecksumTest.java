@@ -0,0 +1,185 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.marashov.ChecksumMode;
+import ru.mail.polis.marashov.Config;
+import ru.mail.polis.marashov.CorruptRange;
+import ru.mail.polis.marashov.CorruptionException;
+import ru.mail.polis.marashov.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checksum verification and scrubbing tests for {@link LsmDAO}.
+ *
+ * @author Alexander Marashov
+ */
+class ChecksumTest extends TestBase {
+    private static final int COUNT = 10;
+    private static final long CORRUPT_OFFSET = 100L;
+    private static final int SAMPLE_PERIOD = 4;
+    // The first record read is always sampled
+    private static final long LAST_RECORD_OFFSET =
+            (COUNT - 1) * (3L * Integer.BYTES + KEY_LENGTH + randomValue().remaining());
+
+    @Test
+    void reopen(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = fill(data);
+        try (LsmDAO dao = new LsmDAO(data, config(ChecksumMode.ALWAYS))) {
+            for (final var entry : map.entrySet()) {
+                assertEquals(entry.getValue(), dao.get(entry.getKey()));
+            }
+            assertTrue(dao.scrub().isEmpty());
+            assertEquals(1L, dao.getIntegrityMetrics().getScrubPasses());
+        }
+    }
+
+    @Test
+    void alwaysDetects(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = fill(data);
+        corrupt(data);
+        try (LsmDAO dao = new LsmDAO(data, config(ChecksumMode.ALWAYS))) {
+            assertThrows(CorruptionException.class, () -> dao.get(map.firstKey()));
+            assertEquals(map.lastEntry().getValue(), dao.get(map.lastKey()));
+            assertEquals(1L, dao.getIntegrityMetrics().getChecksumFailures());
+        }
+    }
+
+    @Test
+    void offIgnores(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = fill(data);
+        corrupt(data);
+        try (LsmDAO dao = new LsmDAO(data, config(ChecksumMode.OFF))) {
+            assertNotEquals(map.firstEntry().getValue(), dao.get(map.firstKey()));
+            assertEquals(0L, dao.getIntegrityMetrics().getChecksumFailures());
+        }
+    }
+
+    @Test
+    void sampledDetectsSome(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = fill(data);
+        corrupt(data);
+        try (LsmDAO dao = new LsmDAO(data, config(ChecksumMode.SAMPLED))) {
+            int failures = 0;
+            for (int i = 0; i < 3 * SAMPLE_PERIOD; i++) {
+                try {
+                    assertNotEquals(map.firstEntry().getValue(), dao.get(map.firstKey()));
+                } catch (CorruptionException e) {
+                    failures++;
+                }
+            }
+            assertEquals(3, failures);
+            assertEquals(3L, dao.getIntegrityMetrics().getChecksumFailures());
+        }
+    }
+
+    @Test
+    void scrubReportsRange(@TempDir File data) throws IOException {
+        fill(data);
+        corrupt(data);
+        for (final ChecksumMode mode : List.of(ChecksumMode.OFF, ChecksumMode.SAMPLED)) {
+            try (LsmDAO dao = new LsmDAO(data, config(mode))) {
+                final List<CorruptRange> corrupt = dao.scrub();
+                assertEquals(1, corrupt.size());
+                final CorruptRange range = corrupt.get(0);
+                assertEquals(0L, range.getFrom());
+                assertTrue(range.getTo() > CORRUPT_OFFSET);
+                assertEquals(corrupt, dao.getIntegrityMetrics().getCorruptRanges());
+            }
+        }
+    }
+
+    @Test
+    void compactionKeepsCorruptionIfOff(@TempDir File data) throws Exception {
+        assertCompactionKeepsCorruption(data, ChecksumMode.OFF);
+    }
+
+    @Test
+    void compactionKeepsCorruptionIfSampled(@TempDir File data) throws Exception {
+        assertCompactionKeepsCorruption(data, ChecksumMode.SAMPLED);
+    }
+
+    /**
+     * Compaction must not rewrite corrupt records with valid checksums even if reads don't verify them.
+     */
+    private static void assertCompactionKeepsCorruption(
+            final File data,
+            final ChecksumMode mode) throws Exception {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = fill(data);
+        corrupt(data, LAST_RECORD_OFFSET + CORRUPT_OFFSET);
+        try (DAO dao = new LsmDAO(data, config(mode))) {
+            dao.upsert(randomKey(), randomValue());
+        }
+
+        final Config config = builder(mode)
+                .checksumSamplePeriod(COUNT * SAMPLE_PERIOD)
+                .compactionTableCount(2)
+                .tableCountLimits(3, 6)
+                .build();
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            awaitTrue(() -> dao.getIntegrityMetrics().getChecksumFailures() > 0);
+            assertEquals(1, dao.scrub().size());
+            assertEquals(map.firstEntry().getValue(), dao.get(map.firstKey()));
+        }
+        assertTrue(new File(data, "0.db").exists());
+
+        // Still detected by the next process
+        try (LsmDAO dao = new LsmDAO(data, config(mode))) {
+            assertEquals(1, dao.scrub().size());
+        }
+    }
+
+    private static Config config(final ChecksumMode mode) {
+        return builder(mode).build();
+    }
+
+    private static Config.Builder builder(final ChecksumMode mode) {
+        return Config.builder()
+                .checksumMode(mode)
+                .checksumSamplePeriod(SAMPLE_PERIOD)
+                .scrubBytesPerSecond(0);
+    }
+
+    private static NavigableMap<ByteBuffer, ByteBuffer> fill(final File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        try (DAO dao = new LsmDAO(data, config(ChecksumMode.ALWAYS))) {
+            for (int i = 0; i < COUNT; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                dao.upsert(key, value);
+                map.put(key, value);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Flips a value byte of the first record in the only table.
+     */
+    private static void corrupt(final File data) throws IOException {
+        corrupt(data, CORRUPT_OFFSET);
+    }
+
+    private static void corrupt(
+            final File data,
+            final long offset) throws IOException {
+        final File[] tables = data.listFiles();
+        assertNotNull(tables);
+        assertEquals(1, tables.length);
+        try (RandomAccessFile file = new RandomAccessFile(tables[0], "rw")) {
+            file.seek(offset);
+            final int b = file.read();
+            file.seek(offset);
+            file.write(~b);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.marashov.Config;
+import ru.mail.polis.marashov.LsmDAO;
+import ru.mail.polis.marashov.StallState;
+import ru.mail.polis.marashov.WriteStallException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Background flush and compaction tests for {@link LsmDAO}.
+ *
+ * @author Alexander Marashov
+ */
+class CompactionTest extends TestBase {
+    private static final int KEYS = 100;
+    private static final int WRITES = 2_000;
+
+    @Test
+    void overwritesAndRemoves(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .flushThresholdBytes(16 * 1024)
+                .pendingFlushBytesLimits(32 * 1024, 64 * 1024)
+                .compactionTableCount(2)
+                .tableCountLimits(3, 6)
+                .scrubBytesPerSecond(0)
+                .build();
+        final List<ByteBuffer> keys = new ArrayList<>(KEYS);
+        for (int i = 0; i < KEYS; i++) {
+            keys.add(randomKey());
+        }
+
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (DAO dao = new LsmDAO(data, config)) {
+            for (int i = 0; i < WRITES; i++) {
+                final ByteBuffer key = keys.get(ThreadLocalRandom.current().nextInt(KEYS));
+                if (i % 5 == 0) {
+                    dao.remove(key);
+                    expected.remove(key);
+                } else {
+                    final ByteBuffer value = randomValue();
+                    dao.upsert(key, value);
+                    expected.put(key, value);
+                }
+            }
+            assertContains(dao, expected);
+        }
+
+        try (DAO dao = new LsmDAO(data, config)) {
+            assertContains(dao, expected);
+        }
+    }
+
+    @Test
+    void removedStaysRemovedAfterInterruptedCompaction(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .compactionTableCount(2)
+                .tableCountLimits(3, 6)
+                .scrubBytesPerSecond(0)
+                .build();
+        final ByteBuffer key = randomKey();
+        try (DAO dao = new LsmDAO(data, config)) {
+            dao.upsert(key, randomValue());
+        }
+        final Path oldest = new File(data, "0.db").toPath();
+        final byte[] oldestBytes = Files.readAllBytes(oldest);
+        try (DAO dao = new LsmDAO(data, config)) {
+            dao.remove(key);
+        }
+
+        // Both tables are compacted on open, the tombstone is dropped
+        try (DAO dao = new LsmDAO(data, config)) {
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+        assertFalse(Files.exists(oldest));
+
+        // As if the process died before deleting the older table
+        Files.write(oldest, oldestBytes);
+        try (DAO dao = new LsmDAO(data, config)) {
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+        assertFalse(Files.exists(oldest));
+    }
+
+    @Test
+    void retriesFailedCompaction(@TempDir File data) throws Exception {
+        final Config.Builder builder = Config.builder()
+                .scrubBytesPerSecond(0);
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        try (DAO dao = new LsmDAO(data, builder.build())) {
+            dao.upsert(key, value);
+        }
+        try (DAO dao = new LsmDAO(data, builder.build())) {
+            dao.upsert(randomKey(), randomValue());
+        }
+
+        final Path oldest = new File(data, "0.db").toPath();
+        final byte[] oldestBytes = Files.readAllBytes(oldest);
+        final byte[] corrupt = oldestBytes.clone();
+        // A byte of the first record key
+        corrupt[Integer.BYTES] ^= 1;
+        Files.write(oldest, corrupt);
+
+        final Config config = builder
+                .compactionTableCount(2)
+                .tableCountLimits(3, 6)
+                .build();
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            // Retried with no flushes to trigger it
+            awaitTrue(() -> dao.getIntegrityMetrics().getChecksumFailures() >= 2);
+            assertTrue(Files.exists(oldest));
+
+            Files.write(oldest, oldestBytes);
+            awaitTrue(() -> !Files.exists(oldest));
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void retriesFailedFlush(@TempDir File data) throws Exception {
+        final Config config = Config.builder()
+                .flushThresholdBytes(4 * 1024)
+                .pendingFlushBytesLimits(8 * 1024, 16 * 1024)
+                .maxWriteDelayMillis(1)
+                .stallTimeoutMillis(100)
+                .scrubBytesPerSecond(0)
+                .build();
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            // Blocks the temporary file of the first flush
+            final Path blocker = Files.createDirectories(new File(data, "0.tmp").toPath().resolve("blocker"));
+            assertThrows(WriteStallException.class, () -> {
+                while (true) {
+                    final ByteBuffer key = randomKey();
+                    final ByteBuffer value = randomValue();
+                    dao.upsert(key, value);
+                    expected.put(key, value);
+                }
+            });
+            assertEquals(StallState.STOPPED, dao.getStallState());
+
+            // Recovers with no writes to trigger a flush
+            Files.delete(blocker);
+            awaitTrue(() -> dao.getStallState() == StallState.NONE);
+            final ByteBuffer key = randomKey();
+            final ByteBuffer value = randomValue();
+            dao.upsert(key, value);
+            expected.put(key, value);
+            assertContains(dao, expected);
+        }
+
+        try (DAO dao = new LsmDAO(data, config)) {
+            assertContains(dao, expected);
+        }
+    }
+
+    @Test
+    void closesReplacedTables(@TempDir File data) throws Exception {
+        final Config.Builder builder = Config.builder()
+                .scrubBytesPerSecond(0);
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        for (int i = 0; i < 2; i++) {
+            try (DAO dao = new LsmDAO(data, builder.build())) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                dao.upsert(key, value);
+                expected.put(key, value);
+            }
+        }
+
+        final Config config = builder
+                .flushThresholdBytes(4 * 1024)
+                .pendingFlushBytesLimits(8 * 1024, 16 * 1024)
+                .compactionTableCount(3)
+                .tableCountLimits(4, 8)
+                .build();
+        try (DAO dao = new LsmDAO(data, config)) {
+            final Iterator<Record> before = dao.iterator(ByteBuffer.allocate(0));
+
+            // Flush the third table to compact all of them
+            while (new File(data, "0.db").exists()) {
+                dao.upsert(randomKey(), randomValue());
+                Thread.sleep(1);
+            }
+
+            // Still reads the replaced tables
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+                final Record record = before.next();
+                assertEquals(entry.getKey(), record.getKey());
+                assertEquals(entry.getValue(), record.getValue());
+            }
+            assertFalse(before.hasNext());
+            awaitTrue(() -> openDeletedFiles(data) == 0);
+        }
+    }
+
+    /**
+     * Counts open descriptors of deleted files in the directory, these are available on Linux only.
+     */
+    private static long openDeletedFiles(final File data) {
+        final Path descriptors = Path.of("/proc/self/fd");
+        assumeTrue(Files.isDirectory(descriptors));
+        try (Stream<Path> stream = Files.list(descriptors)) {
+            return stream
+                    .map(descriptor -> {
+                        try {
+                            return Files.readSymbolicLink(descriptor).toString();
+                        } catch (IOException e) {
+                            // Closed meanwhile
+                            return "";
+                        }
+                    })
+                    .filter(link -> link.startsWith(data.getAbsolutePath()) && link.endsWith(" (deleted)"))
+                    .count();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void assertContains(
+            final DAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected) throws IOException {
+        final Iterator<Record> actual = dao.iterator(ByteBuffer.allocate(0));
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            final Record record = actual.next();
+            assertEquals(entry.getKey(), record.getKey());
+            assertEquals(entry.getValue(), record.getValue());
+        }
+        assertFalse(actual.hasNext());
+    }
+}
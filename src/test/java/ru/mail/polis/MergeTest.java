@@ -0,0 +1,213 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.marashov.Config;
+import ru.mail.polis.marashov.LsmDAO;
+import ru.mail.polis.marashov.MergeException;
+import ru.mail.polis.marashov.MergeOperators;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Merge operator tests for {@link LsmDAO}.
+ *
+ * @author Alexander Marashov
+ */
+class MergeTest extends TestBase {
+    private static final int COUNTERS = 50;
+    private static final int WRITES = 5_000;
+
+    @Test
+    void countersSurviveFlushesAndCompactions(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .flushThresholdBytes(16 * 1024)
+                .pendingFlushBytesLimits(32 * 1024, 64 * 1024)
+                .compactionTableCount(2)
+                .tableCountLimits(3, 6)
+                .scrubBytesPerSecond(0)
+                .mergeOperator(MergeOperators.counter())
+                .build();
+        final List<ByteBuffer> keys = new ArrayList<>(COUNTERS);
+        for (int i = 0; i < COUNTERS; i++) {
+            keys.add(randomKey());
+        }
+
+        final Long[] expected = new Long[COUNTERS];
+        try (DAO dao = new LsmDAO(data, config)) {
+            for (int i = 0; i < WRITES; i++) {
+                final int counter = ThreadLocalRandom.current().nextInt(COUNTERS);
+                if (i % 10 == 0) {
+                    // Fill tables to trigger flushes
+                    dao.upsert(randomKey(), randomValue());
+                } else if (i % 97 == 0) {
+                    dao.remove(keys.get(counter));
+                    expected[counter] = null;
+                } else {
+                    dao.merge(keys.get(counter), number(i));
+                    expected[counter] = expected[counter] == null ? i : expected[counter] + i;
+                }
+            }
+            assertCounters(dao, keys, expected);
+        }
+
+        try (DAO dao = new LsmDAO(data, config)) {
+            assertCounters(dao, keys, expected);
+        }
+    }
+
+    @Test
+    void appendsToOlderValue(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .scrubBytesPerSecond(0)
+                .mergeOperator(MergeOperators.append())
+                .build();
+        final ByteBuffer key = randomKey();
+        try (DAO dao = new LsmDAO(data, config)) {
+            dao.upsert(key, string("a"));
+        }
+
+        try (DAO dao = new LsmDAO(data, config)) {
+            dao.merge(key, string("b"));
+            dao.merge(key, string("c"));
+            assertEquals(string("abc"), dao.get(key));
+        }
+
+        try (DAO dao = new LsmDAO(data, config)) {
+            assertEquals(string("abc"), dao.iterator(key).next().getValue());
+        }
+    }
+
+    @Test
+    void concurrentIncrements(@TempDir File data) throws Exception {
+        final Config config = Config.builder()
+                .scrubBytesPerSecond(0)
+                .mergeOperator(MergeOperators.counter())
+                .build();
+        final int threads = 4;
+        final int increments = 1_000;
+        final ByteBuffer key = randomKey();
+        try (DAO dao = new LsmDAO(data, config)) {
+            final List<Thread> writers = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                final Thread writer = new Thread(() -> {
+                    try {
+                        for (int j = 0; j < increments; j++) {
+                            dao.merge(key, number(1));
+                        }
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                });
+                writer.start();
+                writers.add(writer);
+            }
+            for (final Thread writer : writers) {
+                writer.join();
+            }
+            assertEquals(number(threads * increments), dao.get(key));
+        }
+    }
+
+    @Test
+    void rejectsMalformedCounterOperand(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .scrubBytesPerSecond(0)
+                .mergeOperator(MergeOperators.counter())
+                .build();
+        try (DAO dao = new LsmDAO(data, config)) {
+            final ByteBuffer key = randomKey();
+            assertThrows(IllegalArgumentException.class, () -> dao.merge(key, ByteBuffer.allocate(3)));
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+    }
+
+    @Test
+    void malformedCounterValueFailsReadsOnly(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .scrubBytesPerSecond(0)
+                .compactionTableCount(2)
+                .tableCountLimits(3, 6)
+                .mergeOperator(MergeOperators.counter())
+                .build();
+        final ByteBuffer flushed = randomKey();
+        final ByteBuffer buffered = randomKey();
+        final ByteBuffer other = randomKey();
+        final ByteBuffer value = randomValue();
+        try (DAO dao = new LsmDAO(data, config)) {
+            dao.upsert(flushed, string("abc"));
+            dao.upsert(other, value);
+        }
+
+        try (DAO dao = new LsmDAO(data, config)) {
+            dao.merge(flushed, number(1));
+            assertThrows(MergeException.class, () -> dao.get(flushed));
+            final UncheckedIOException e = assertThrows(UncheckedIOException.class, () -> dao.iterator(flushed).next());
+            assertTrue(e.getCause() instanceof MergeException);
+
+            dao.upsert(buffered, string("abc"));
+            dao.merge(buffered, number(1));
+            assertThrows(MergeException.class, () -> dao.get(buffered));
+        }
+
+        // Both tables are compacted on open regardless
+        try (DAO dao = new LsmDAO(data, config)) {
+            assertThrows(MergeException.class, () -> dao.get(flushed));
+            assertThrows(MergeException.class, () -> dao.get(buffered));
+            assertEquals(value, dao.get(other));
+        }
+        assertFalse(new File(data, "0.db").exists());
+
+        try (DAO dao = new LsmDAO(data, config)) {
+            dao.merge(flushed, number(2));
+            assertThrows(MergeException.class, () -> dao.get(flushed));
+
+            // Overwriting fixes the key
+            dao.upsert(flushed, number(5));
+            dao.merge(flushed, number(1));
+            assertEquals(number(6), dao.get(flushed));
+            dao.remove(buffered);
+            dao.merge(buffered, number(1));
+            assertEquals(number(1), dao.get(buffered));
+        }
+    }
+
+    @Test
+    void unsupportedWithoutOperator(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            assertThrows(UnsupportedOperationException.class, () -> dao.merge(randomKey(), number(1)));
+        }
+    }
+
+    private static void assertCounters(
+            final DAO dao,
+            final List<ByteBuffer> keys,
+            final Long[] expected) throws IOException {
+        for (int i = 0; i < keys.size(); i++) {
+            final ByteBuffer key = keys.get(i);
+            if (expected[i] == null) {
+                assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            } else {
+                assertEquals(number(expected[i]), dao.get(key));
+            }
+        }
+    }
+
+    private static ByteBuffer number(final long value) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(0, value);
+    }
+
+    private static ByteBuffer string(final String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,225 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.net.BinaryClient;
+import ru.mail.polis.net.BinaryServer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * End-to-end tests for {@link BinaryServer} and {@link BinaryClient}.
+ *
+ * @author Alexander Marashov
+ */
+class ServerTest extends TestBase {
+    private DAO dao;
+    private BinaryServer server;
+    private Thread serving;
+    private BinaryClient client;
+
+    @BeforeEach
+    void start(@TempDir File data) throws IOException {
+        dao = DAOFactory.create(data);
+        server = new BinaryServer(dao, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        serving.start();
+        client = new BinaryClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        client.close();
+        server.close();
+        serving.join();
+        dao.close();
+    }
+
+    @Test
+    void upsertGetRemove() throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        assertThrows(NoSuchElementException.class, () -> client.get(key));
+        client.upsert(key, value);
+        assertEquals(value, client.get(key));
+        client.remove(key);
+        assertThrows(NoSuchElementException.class, () -> client.get(key));
+    }
+
+    @Test
+    void pipeline() throws IOException {
+        final int count = 1000;
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            final ByteBuffer key = randomKey();
+            final ByteBuffer value = randomValue();
+            map.put(key, value);
+            client.sendUpsert(key, value);
+        }
+        // Responses to gets exceed the server output buffer
+        for (final ByteBuffer key : map.keySet()) {
+            client.sendGet(key);
+        }
+        client.flush();
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(BinaryClient.Response.Status.OK, client.receive().getStatus());
+        }
+        for (final ByteBuffer value : map.values()) {
+            final BinaryClient.Response response = client.receive();
+            assertEquals(BinaryClient.Response.Status.OK, response.getStatus());
+            assertEquals(value, response.getValue());
+        }
+    }
+
+    @Test
+    void streamedRange() throws IOException {
+        // Enough data to span several server output buffers
+        final int count = 500;
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            final ByteBuffer key = randomKey();
+            final ByteBuffer value = randomValue();
+            map.put(key, value);
+            dao.upsert(key, value);
+        }
+
+        final ByteBuffer from = map.firstKey();
+        final ByteBuffer to = map.lastKey();
+        final Iterator<Record> actual = client.range(from, to);
+        for (final Map.Entry<ByteBuffer, ByteBuffer> expected : map.headMap(to).entrySet()) {
+            final Record record = actual.next();
+            assertEquals(expected.getKey(), record.getKey());
+            assertEquals(expected.getValue(), record.getValue());
+        }
+        assertFalse(actual.hasNext());
+
+        // The connection is still usable after the stream
+        assertEquals(map.get(to), client.get(to));
+    }
+
+    @Test
+    void stalledWriteDoesNotBlockReads() throws Exception {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        dao.upsert(key, value);
+
+        final CountDownLatch stalled = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        final DAO stalling = new DAO() {
+            @NotNull
+            @Override
+            public Iterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+                return dao.iterator(from);
+            }
+
+            @NotNull
+            @Override
+            public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException {
+                return dao.get(key);
+            }
+
+            @Override
+            public void upsert(
+                    @NotNull final ByteBuffer key,
+                    @NotNull final ByteBuffer value) throws IOException {
+                stalled.countDown();
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+                dao.upsert(key, value);
+            }
+
+            @Override
+            public void remove(@NotNull final ByteBuffer key) throws IOException {
+                dao.remove(key);
+            }
+
+            @Override
+            public void close() {
+                // The delegate is closed by the fixture
+            }
+        };
+
+        final BinaryServer stallingServer =
+                new BinaryServer(stalling, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        final Thread stallingServing = new Thread(() -> {
+            try {
+                stallingServer.serve();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        stallingServing.start();
+        final InetSocketAddress address =
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), stallingServer.getPort());
+        try (BinaryClient writer = new BinaryClient(address);
+             BinaryClient reader = new BinaryClient(address)) {
+            writer.sendUpsert(randomKey(), randomValue());
+            writer.flush();
+            stalled.await();
+
+            assertEquals(value, assertTimeoutPreemptively(Duration.ofSeconds(10), () -> reader.get(key)));
+
+            released.countDown();
+            assertEquals(BinaryClient.Response.Status.OK, writer.receive().getStatus());
+        } finally {
+            released.countDown();
+            stallingServer.close();
+            stallingServing.join();
+        }
+    }
+
+    @Test
+    void malformedFieldSize() throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+            for (final int size : new int[]{-5, Integer.MAX_VALUE}) {
+                // GET with a single field of the given size
+                out.writeByte(1);
+                out.writeInt(Integer.BYTES);
+                out.writeInt(size);
+                out.flush();
+
+                // ERROR with a message
+                assertEquals(2, in.readByte());
+                in.readFully(new byte[in.readInt()]);
+            }
+        }
+
+        // Neither the server nor other connections are affected
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        client.upsert(key, value);
+        assertEquals(value, client.get(key));
+    }
+}
@@ -0,0 +1,69 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.marashov.Config;
+import ru.mail.polis.marashov.ShardedDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Functional tests for {@link ShardedDAO}.
+ *
+ * @author Alexander Marashov
+ */
+class ShardedTest extends TestBase {
+    private static final int SHARDS = 4;
+    private static final int COUNT = 100;
+
+    private static final Config CONFIG = Config.builder()
+            .scrubBytesPerSecond(0)
+            .build();
+
+    @Test
+    void globalOrder(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        try (DAO dao = new ShardedDAO(data, SHARDS, CONFIG)) {
+            for (int i = 0; i < COUNT; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                dao.upsert(key, value);
+                map.put(key, value);
+            }
+
+            final ByteBuffer removed = map.firstKey();
+            dao.remove(removed);
+            map.remove(removed);
+            assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+        }
+
+        try (DAO dao = new ShardedDAO(data, SHARDS, CONFIG)) {
+            final ByteBuffer middle = map.keySet().stream().skip(COUNT / 2).findFirst().orElseThrow();
+            final Iterator<Record> actual = dao.iterator(middle);
+            for (final Map.Entry<ByteBuffer, ByteBuffer> expected : map.tailMap(middle).entrySet()) {
+                final Record record = actual.next();
+                assertEquals(expected.getKey(), record.getKey());
+                assertEquals(expected.getValue(), record.getValue());
+                assertEquals(expected.getValue(), dao.get(expected.getKey()));
+            }
+            assertFalse(actual.hasNext());
+        }
+    }
+
+    @Test
+    void shardCountIsFixed(@TempDir File data) throws IOException {
+        try (DAO dao = new ShardedDAO(data, SHARDS, CONFIG)) {
+            dao.upsert(randomKey(), randomValue());
+        }
+        assertThrows(IllegalStateException.class, () -> new ShardedDAO(data, SHARDS + 1, CONFIG));
+    }
+}
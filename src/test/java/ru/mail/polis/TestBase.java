@@ -20,6 +20,9 @@ import org.jetbrains.annotations.NotNull;
 
 import java.nio.ByteBuffer;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Contains utility methods for unit tests.
@@ -48,6 +51,17 @@ abstract class TestBase {
         return randomBuffer(VALUE_LENGTH);
     }
 
+    /**
+     * Waits for the condition changed by background tasks.
+     */
+    static void awaitTrue(@NotNull final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            Thread.sleep(10);
+        }
+    }
+
     @NotNull
     static ByteBuffer join(
             @NotNull final ByteBuffer left,
@@ -0,0 +1,220 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.trace.RecordingDAO;
+import ru.mail.polis.trace.TraceEvent;
+import ru.mail.polis.trace.TraceReader;
+import ru.mail.polis.trace.TraceWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for trace recording by {@link RecordingDAO} and its {@link Replay}.
+ *
+ * @author Alexander Marashov
+ */
+class TraceTest extends TestBase {
+    private static final int COUNT = 100;
+    private static final int THREADS = 4;
+
+    @Test
+    void recordsOperations(@TempDir File data) throws IOException {
+        final File trace = new File(data, "trace");
+        final File storage = new File(data, "storage");
+        assertTrue(storage.mkdir());
+
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        try (DAO dao = new RecordingDAO(DAOFactory.create(storage), new TraceWriter(trace))) {
+            dao.upsert(key, value);
+            assertEquals(value, dao.get(key));
+            dao.remove(key);
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            dao.iterator(key);
+        }
+
+        try (TraceReader reader = new TraceReader(trace)) {
+            assertEvent(reader.next(), TraceEvent.Op.PUT, key, value.remaining());
+            assertEvent(reader.next(), TraceEvent.Op.GET, key, value.remaining());
+            assertEvent(reader.next(), TraceEvent.Op.REMOVE, key, TraceEvent.ABSENT);
+            assertEvent(reader.next(), TraceEvent.Op.GET, key, TraceEvent.ABSENT);
+            assertEvent(reader.next(), TraceEvent.Op.ITERATE, key, TraceEvent.ABSENT);
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    void recordsConcurrently(@TempDir File data) throws Exception {
+        final File trace = new File(data, "trace");
+        final File storage = new File(data, "storage");
+        assertTrue(storage.mkdir());
+
+        final Set<ByteBuffer> keys = ConcurrentHashMap.newKeySet();
+        try (DAO dao = new RecordingDAO(DAOFactory.create(storage), new TraceWriter(trace))) {
+            final List<Thread> threads = new ArrayList<>(THREADS);
+            for (int t = 0; t < THREADS; t++) {
+                final boolean direct = t % 2 == 0;
+                final Thread thread = new Thread(() -> {
+                    for (int i = 0; i < COUNT; i++) {
+                        final ByteBuffer key = randomKey();
+                        keys.add(key);
+                        final ByteBuffer recorded = direct
+                                ? ByteBuffer.allocateDirect(key.remaining()).put(key.duplicate()).flip()
+                                : key;
+                        assertThrows(NoSuchElementException.class, () -> dao.get(recorded));
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        final Set<ByteBuffer> recorded = new HashSet<>();
+        final Set<Long> streams = new HashSet<>();
+        try (TraceReader reader = new TraceReader(trace)) {
+            for (TraceEvent event = reader.next(); event != null; event = reader.next()) {
+                assertEquals(TraceEvent.Op.GET, event.getOp());
+                assertEquals(TraceEvent.ABSENT, event.getValueSize());
+                recorded.add(event.getKey());
+                streams.add(event.getStream());
+            }
+        }
+        assertEquals(THREADS * COUNT, recorded.size());
+        assertEquals(keys, recorded);
+        assertEquals(THREADS, streams.size());
+    }
+
+    @Test
+    void replaysStreamsConcurrently(@TempDir File data) throws Exception {
+        final File trace = new File(data, "trace");
+        final ByteBuffer slow = randomKey();
+        final ByteBuffer fast = randomKey();
+        try (TraceWriter writer = new TraceWriter(trace)) {
+            for (final ByteBuffer key : List.of(slow, fast)) {
+                // Each from its own stream
+                final Thread thread = new Thread(() -> {
+                    try {
+                        final long now = System.nanoTime();
+                        writer.write(TraceEvent.Op.GET, now, now, key, TraceEvent.ABSENT);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                thread.start();
+                thread.join();
+            }
+        }
+
+        // The slow get completes only once the fast one recorded after it is replayed
+        final CountDownLatch fastReplayed = new CountDownLatch(1);
+        final DAO dao = new DAO() {
+            @NotNull
+            @Override
+            public Iterator<Record> iterator(@NotNull final ByteBuffer from) {
+                throw new UnsupportedOperationException();
+            }
+
+            @NotNull
+            @Override
+            public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException {
+                if (key.equals(fast)) {
+                    fastReplayed.countDown();
+                } else {
+                    try {
+                        if (!fastReplayed.await(10, TimeUnit.SECONDS)) {
+                            throw new IOException("Streams are replayed sequentially");
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException(e);
+                    }
+                }
+                return key;
+            }
+
+            @Override
+            public void upsert(
+                    @NotNull final ByteBuffer key,
+                    @NotNull final ByteBuffer value) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void remove(@NotNull final ByteBuffer key) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+                // Nothing to close
+            }
+        };
+
+        final Replay.Report report;
+        try (TraceReader reader = new TraceReader(trace)) {
+            report = Replay.replay(reader, dao, 0);
+        }
+        assertEquals(2L, report.ops.get(TraceEvent.Op.GET));
+        assertEquals(0L, report.errors);
+    }
+
+    @Test
+    void replays(@TempDir File data) throws IOException {
+        final File trace = new File(data, "trace");
+        final File recorded = new File(data, "recorded");
+        final File replayed = new File(data, "replayed");
+        assertTrue(recorded.mkdir());
+        assertTrue(replayed.mkdir());
+
+        try (DAO dao = new RecordingDAO(DAOFactory.create(recorded), new TraceWriter(trace))) {
+            for (int i = 0; i < COUNT; i++) {
+                final ByteBuffer key = randomKey();
+                dao.upsert(key, randomValue());
+                dao.get(key);
+                assertThrows(NoSuchElementException.class, () -> dao.get(randomKey()));
+            }
+        }
+
+        final Replay.Report report;
+        try (TraceReader reader = new TraceReader(trace);
+             DAO dao = DAOFactory.create(replayed)) {
+            report = Replay.replay(reader, dao, 0);
+        }
+        assertEquals(3 * COUNT, report.replayed.getCount());
+        assertEquals(COUNT, report.ops.get(TraceEvent.Op.PUT));
+        assertEquals(2 * COUNT, report.ops.get(TraceEvent.Op.GET));
+        assertEquals(COUNT, report.notFound);
+        assertEquals(0L, report.errors);
+    }
+
+    private static void assertEvent(
+            final TraceEvent event,
+            final TraceEvent.Op op,
+            final ByteBuffer key,
+            final int valueSize) {
+        assertNotNull(event);
+        assertEquals(op, event.getOp());
+        assertEquals(key, event.getKey());
+        assertEquals(valueSize, event.getValueSize());
+        assertTrue(event.getStartMicros() >= 0);
+    }
+}
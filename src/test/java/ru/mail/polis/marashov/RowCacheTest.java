@@ -0,0 +1,111 @@
+package ru.mail.polis.marashov;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link RowCache} admission and invalidation.
+ *
+ * @author Alexander Marashov
+ */
+class RowCacheTest {
+    private static final ByteBuffer VALUE = ByteBuffer.allocate(100);
+
+    private final RowCacheMetrics metrics = new RowCacheMetrics();
+
+    @Test
+    void invalidates() {
+        final RowCache cache = new RowCache(64 * 1024, metrics);
+        final ByteBuffer key = key("key");
+        assertNull(cache.get(key));
+        cache.put(key, VALUE, cache.stamp(key));
+        assertEquals(VALUE, cache.get(key));
+
+        cache.invalidate(key);
+        assertNull(cache.get(key));
+        assertEquals(1L, metrics.getHits());
+        assertEquals(2L, metrics.getMisses());
+    }
+
+    @Test
+    void skipsStale() {
+        final RowCache cache = new RowCache(64 * 1024, metrics);
+        final ByteBuffer key = key("key");
+        final long stamp = cache.stamp(key);
+        // Updated while the value was being read
+        cache.invalidate(key);
+        cache.put(key, VALUE, stamp);
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    void resistsScan() {
+        // Room for a few dozen rows
+        final RowCache cache = new RowCache(8 * 1024, metrics);
+        final ByteBuffer hot = key("hot");
+        for (int i = 0; i < 10; i++) {
+            if (cache.get(hot) == null) {
+                cache.put(hot, VALUE, cache.stamp(hot));
+            }
+        }
+        // Push the hot row out of the window
+        for (int i = 0; i < 10; i++) {
+            final ByteBuffer warm = key("warm" + i);
+            cache.get(warm);
+            cache.put(warm, VALUE, cache.stamp(warm));
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer cold = key("cold" + i);
+            cache.get(cold);
+            cache.put(cold, VALUE, cache.stamp(cold));
+        }
+        assertEquals(VALUE, cache.get(hot));
+        assertTrue(metrics.getRejections() > 0);
+    }
+
+    @Test
+    void segmented() {
+        final RowCache cache = new RowCache(16 * 1024 * 1024, metrics);
+        final int count = 1000;
+        for (int i = 0; i < count; i++) {
+            final ByteBuffer key = key("key" + i);
+            cache.put(key, VALUE, cache.stamp(key));
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals(VALUE, cache.get(key("key" + i)));
+            cache.invalidate(key("key" + i));
+            assertNull(cache.get(key("key" + i)));
+        }
+        assertEquals(count, metrics.getHits());
+        assertEquals(count, metrics.getMisses());
+    }
+
+    @Test
+    void readThrough(@TempDir final File data) throws IOException {
+        try (LsmDAO dao = new LsmDAO(data, Config.builder().rowCacheBytes(1024 * 1024).build())) {
+            final ByteBuffer key = key("key");
+            dao.upsert(key, key("first"));
+            assertEquals(key("first"), dao.get(key));
+            assertEquals(key("first"), dao.get(key));
+            assertEquals(1L, dao.getRowCacheMetrics().getHits());
+
+            dao.upsert(key, key("second"));
+            assertEquals(key("second"), dao.get(key));
+            dao.remove(key);
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+    }
+
+    private static ByteBuffer key(final String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
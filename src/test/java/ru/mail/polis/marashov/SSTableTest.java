@@ -0,0 +1,134 @@
+package ru.mail.polis.marashov;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for partitioned {@link SSTable} index and filters.
+ *
+ * @author Alexander Marashov
+ */
+class SSTableTest {
+    private static final int COUNT = 10_000;
+    private static final int PARTITION_SIZE = 64;
+
+    private final BlockCacheMetrics metrics = new BlockCacheMetrics();
+    private final ChecksumVerifier verifier = new ChecksumVerifier(ChecksumMode.ALWAYS, 1, new IntegrityMetrics());
+
+    @Test
+    void loadsPartitionsOnDemand(@TempDir final File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        // Even keys only to look up the odd ones
+        for (int i = 0; i < COUNT; i += 2) {
+            map.put(key(i), ByteBuffer.allocate(Long.BYTES).putLong(0, i));
+        }
+        final File file = new File(data, "0" + SSTable.SUFFIX);
+        SSTable.write(file, cells(map), PARTITION_SIZE, false);
+
+        // Room for a few partitions only
+        final BlockCache cache = new BlockCache(16 * 1024, metrics);
+        final SSTable table = SSTable.open(file, 0L, verifier, cache);
+        try {
+            assertEquals(0L, metrics.getMisses());
+
+            final Cell found = table.get(key(100));
+            assertNotNull(found);
+            assertEquals(map.get(key(100)), found.getValue().getData());
+            // The filter and the index of one partition
+            assertEquals(2L, metrics.getMisses());
+
+            for (int i = 1; i < COUNT; i += 2) {
+                assertNull(table.get(key(i)));
+            }
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : map.entrySet()) {
+                final Cell cell = table.get(entry.getKey());
+                assertNotNull(cell);
+                assertEquals(entry.getValue(), cell.getValue().getData());
+            }
+            assertNull(table.get(key(-1)));
+            assertNull(table.get(key(COUNT)));
+
+            final ByteBuffer from = key(COUNT / 3);
+            final Iterator<Cell> actual = table.iterator(from);
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : map.tailMap(from).entrySet()) {
+                final Cell cell = actual.next();
+                assertEquals(entry.getKey(), cell.getKey());
+                assertEquals(entry.getValue(), cell.getValue().getData());
+            }
+            assertFalse(actual.hasNext());
+        } finally {
+            table.close();
+        }
+    }
+
+    @Test
+    void filtersSkipPartitions(@TempDir final File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        for (int i = 0; i < COUNT; i += 2) {
+            map.put(key(i), ByteBuffer.allocate(0));
+        }
+        final File file = new File(data, "0" + SSTable.SUFFIX);
+        SSTable.write(file, cells(map), PARTITION_SIZE, false);
+
+        final SSTable table = SSTable.open(file, 0L, verifier, new BlockCache(1024 * 1024, metrics));
+        try {
+            for (int i = 1; i < COUNT; i += 2) {
+                assertNull(table.get(key(i)));
+            }
+            final long partitions = (COUNT / 2 + PARTITION_SIZE - 1) / PARTITION_SIZE;
+            // Index blocks are read for false positives only
+            assertTrue(metrics.getMisses() < partitions + COUNT / 2 / 20);
+        } finally {
+            table.close();
+        }
+    }
+
+    @Test
+    void closesOnLastRelease(@TempDir final File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        for (int i = 0; i < COUNT; i++) {
+            map.put(key(i), ByteBuffer.allocate(Long.BYTES).putLong(0, i));
+        }
+        final File file = new File(data, "0" + SSTable.SUFFIX);
+        SSTable.write(file, cells(map), PARTITION_SIZE, false);
+
+        final SSTable table = SSTable.open(file, 0L, verifier, new BlockCache(1024 * 1024, metrics));
+        try {
+            table.retain();
+            final Iterator<Cell> cells = table.iterator(key(0));
+            // By the owner
+            table.release();
+            assertEquals(key(0), cells.next().getKey());
+            assertNotNull(table.get(key(COUNT - 1)));
+
+            // By the reader
+            table.release();
+            assertThrows(ClosedChannelException.class, () -> table.get(key(COUNT - 1)));
+            assertThrows(IllegalStateException.class, table::retain);
+        } finally {
+            table.close();
+        }
+    }
+
+    private static Iterator<Cell> cells(final NavigableMap<ByteBuffer, ByteBuffer> map) {
+        return map.entrySet().stream()
+                .map(e -> new Cell(e.getKey(), Value.of(e.getValue()), 0L))
+                .iterator();
+    }
+
+    private static ByteBuffer key(final int i) {
+        // Sign bit flipped to keep the byte order of negative numbers
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, i ^ Integer.MIN_VALUE);
+    }
+}
@@ -0,0 +1,82 @@
+package ru.mail.polis.marashov;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for background {@link Scrubber}.
+ *
+ * @author Alexander Marashov
+ */
+class ScrubberTest {
+    private static final int COUNT = 10_000;
+
+    private final IntegrityMetrics metrics = new IntegrityMetrics();
+
+    @Test
+    void stopsWithoutClosingTables(@TempDir final File data) throws Exception {
+        final File file = new File(data, "0" + SSTable.SUFFIX);
+        SSTable.write(file, cells(), 64, false);
+        final SSTable table = SSTable.open(
+                file,
+                0L,
+                new ChecksumVerifier(ChecksumMode.ALWAYS, 1, metrics),
+                new BlockCache(1024 * 1024, new BlockCacheMetrics()));
+        try {
+            // Unlimited rate to be stopped in the middle of a read
+            final Scrubber scrubber = new Scrubber(
+                    () -> {
+                        table.retain();
+                        return List.of(table);
+                    },
+                    metrics,
+                    0,
+                    1);
+            while (metrics.getScrubPasses() == 0) {
+                Thread.sleep(1);
+            }
+            // Somewhere in the next pass
+            Thread.sleep(10);
+            scrubber.close();
+
+            final Cell cell = table.get(key(COUNT - 1));
+            assertNotNull(cell);
+            assertEquals(key(COUNT - 1), cell.getValue().getData());
+        } finally {
+            table.close();
+        }
+    }
+
+    @Test
+    void ignoresRemovedTables() {
+        final List<CorruptRange> corrupt = List.of(new CorruptRange("0.db", 0, 10));
+        metrics.tableAdded(1L);
+        metrics.tableScrubbed(1L, 100, corrupt);
+        assertEquals(corrupt, metrics.getCorruptRanges());
+
+        // The compacted table with the same name
+        metrics.tableAdded(2L);
+        metrics.tableRemoved(1L);
+        metrics.tableScrubbed(1L, 100, corrupt);
+        assertTrue(metrics.getCorruptRanges().isEmpty());
+    }
+
+    private static Iterator<Cell> cells() {
+        return IntStream.range(0, COUNT)
+                .mapToObj(i -> new Cell(key(i), Value.of(key(i)), 0L))
+                .iterator();
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, i);
+    }
+}
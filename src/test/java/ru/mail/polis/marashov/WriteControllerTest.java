@@ -0,0 +1,94 @@
+package ru.mail.polis.marashov;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link WriteController} backpressure.
+ *
+ * @author Alexander Marashov
+ */
+class WriteControllerTest {
+    private final AtomicLong pendingFlushBytes = new AtomicLong();
+    private final AtomicInteger tableCount = new AtomicInteger();
+    private final WriteController controller = new WriteController(
+            Config.builder()
+                    .flushThresholdBytes(50)
+                    .pendingFlushBytesLimits(100, 200)
+                    .compactionTableCount(2)
+                    .tableCountLimits(4, 8)
+                    .maxWriteDelayMillis(1)
+                    .stallTimeoutMillis(100)
+                    .build(),
+            pendingFlushBytes::get,
+            tableCount::get);
+
+    @Test
+    void none() throws IOException {
+        pendingFlushBytes.set(99);
+        tableCount.set(3);
+        assertEquals(StallState.NONE, controller.state());
+        controller.beforeWrite();
+        assertEquals(0L, controller.metrics().getDelayedWrites());
+    }
+
+    @Test
+    void delayed() throws IOException {
+        pendingFlushBytes.set(150);
+        assertEquals(StallState.DELAYED, controller.state());
+        controller.beforeWrite();
+        assertEquals(1L, controller.metrics().getDelayedWrites());
+
+        pendingFlushBytes.set(0);
+        tableCount.set(4);
+        assertEquals(StallState.DELAYED, controller.state());
+    }
+
+    @Test
+    void timesOut() {
+        tableCount.set(8);
+        assertEquals(StallState.STOPPED, controller.state());
+        assertThrows(WriteStallException.class, controller::beforeWrite);
+        assertEquals(1L, controller.metrics().getTimedOutWrites());
+    }
+
+    @Test
+    void pendingFlushLimitsFollowThreshold() {
+        final Config config = Config.builder()
+                .flushThresholdBytes(32 * 1024 * 1024)
+                .build();
+        assertTrue(config.getSoftPendingFlushBytes() > config.getFlushThresholdBytes());
+        assertTrue(config.getHardPendingFlushBytes() > config.getSoftPendingFlushBytes());
+
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> Config.builder()
+                        .flushThresholdBytes(32 * 1024 * 1024)
+                        .pendingFlushBytesLimits(8 * 1024 * 1024, 16 * 1024 * 1024)
+                        .build());
+    }
+
+    @Test
+    void resumes() throws Exception {
+        pendingFlushBytes.set(200);
+        final Thread writer = Thread.currentThread();
+        final Thread compactor = new Thread(() -> {
+            // Release the writer only once it is blocked
+            while (writer.getState() != Thread.State.TIMED_WAITING) {
+                Thread.onSpinWait();
+            }
+            pendingFlushBytes.set(0);
+            controller.signal();
+        });
+        compactor.start();
+        controller.beforeWrite();
+        compactor.join();
+        assertEquals(StallState.NONE, controller.state());
+        assertEquals(1L, controller.metrics().getStoppedWrites());
+    }
+}